@@ -0,0 +1,106 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import misassemblyLDCorrection.IndexedFastaReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.SyntheticData;
+
+/**
+ * Reading a multi-record fasta file: FastaChannelReader copying every record into
+ * a FastaChannelWriter as Standardize does, a BufferedReader line loop as the older
+ * readers do, and IndexedFastaReader loading the first record.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastaReaderBenchmark {
+    @Param({"8"})
+    public int contigs;
+
+    @Param({"4000000"})
+    public int contigLength;
+
+    private Path dir;
+    private Path fasta;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException{
+        dir = Files.createTempDirectory("fastabench");
+        fasta = dir.resolve("contigs.fa");
+        output = dir.resolve("standard.fa");
+        SyntheticData.writeFasta(fasta, contigs, contigLength, 60, SyntheticData.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        File[] files = dir.toFile().listFiles();
+        if(files != null)
+            for(File f : files)
+                f.delete();
+        dir.toFile().delete();
+    }
+
+    @Benchmark
+    public long channelReader() throws IOException{
+        long bases = 0;
+        try(FastaChannelReader reader = new FastaChannelReader(fasta);
+                FastaChannelWriter writer = new FastaChannelWriter(output, 60)){
+            String name;
+            while((name = reader.nextHeader()) != null){
+                writer.startRecord(name);
+                bases += reader.copySequence(writer);
+                writer.endRecord();
+            }
+        }
+        return bases;
+    }
+
+    @Benchmark
+    public long bufferedReaderLines() throws IOException{
+        long bases = 0;
+        try(BufferedReader reader = Files.newBufferedReader(fasta, Charset.defaultCharset())){
+            String line;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(!line.startsWith(">"))
+                    bases += line.length();
+            }
+        }
+        return bases;
+    }
+
+    @Benchmark
+    public IndexedFastaReader indexedReaderFirstRecord(){
+        IndexedFastaReader reader = new IndexedFastaReader(fasta);
+        reader.LoadEntry();
+        return reader;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup throughput of BloomFilter and BlockedBloomFilter, filled with read
+ * names. Hit lookups are for names in the filter, miss lookups for
+ * names that are not. Miss lookups also count their false positives as a
+ * secondary result; the measured false positive rate is the falsePositives
+ * score divided by the primary score.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BloomFilterBenchmark {
+    @Param({"1000000"})
+    public int elements;
+
+    @Param({"0.01", "0.000001"})
+    public double fpp;
+
+    private byte[][] present;
+    private byte[][] absent;
+    private BloomFilter<String> bloom;
+    private BlockedBloomFilter<String> blocked;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        present = SyntheticData.readNames(elements, "H5KJ2DSXX", SyntheticData.SEED);
+        absent = SyntheticData.readNames(elements, "H7QP4DSXX", SyntheticData.SEED + 1);
+        bloom = new BloomFilter<>(fpp, elements);
+        blocked = new BlockedBloomFilter<>(fpp, elements);
+        for(byte[] name : present){
+            bloom.add(name);
+            blocked.add(name);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor{
+        private int next = 0;
+
+        public byte[] next(byte[][] keys){
+            if(next == keys.length)
+                next = 0;
+            return keys[next++];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Misses{
+        public long falsePositives;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            falsePositives = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean bloomHit(Cursor c){
+        return bloom.contains(c.next(present));
+    }
+
+    @Benchmark
+    public boolean bloomMiss(Cursor c, Misses m){
+        boolean found = bloom.contains(c.next(absent));
+        if(found)
+            m.falsePositives++;
+        return found;
+    }
+
+    @Benchmark
+    public boolean blockedHit(Cursor c){
+        return blocked.contains(c.next(present));
+    }
+
+    @Benchmark
+    public boolean blockedMiss(Cursor c, Misses m){
+        boolean found = blocked.contains(c.next(absent));
+        if(found)
+            m.falsePositives++;
+        return found;
+    }
+}
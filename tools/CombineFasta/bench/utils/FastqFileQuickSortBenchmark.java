@@ -0,0 +1,80 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * External sort of a fastq file by read name, as Pair.runSorted does it. The
+ * chunk size is small enough that the sort writes several runs and merges them.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FastqFileQuickSortBenchmark {
+    @Param({"500000"})
+    public int reads;
+
+    @Param({"16777216"})
+    public long chunkBytes;
+
+    @Param({"false", "true"})
+    public boolean radix;
+
+    private Path dir;
+    private Path fastq;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException{
+        dir = Files.createTempDirectory("sortbench");
+        fastq = dir.resolve("reads.fq");
+        SyntheticData.writeFastq(fastq, reads, 150, SyntheticData.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        File[] files = dir.toFile().listFiles();
+        if(files != null)
+            for(File f : files)
+                f.delete();
+        dir.toFile().delete();
+    }
+
+    @Benchmark
+    public long sort() throws IOException{
+        FastqFileQuickSort sort = new FastqFileQuickSort("\t", new int[]{0}, dir.resolve("reads").toString());
+        sort.setTempDirectory(dir.toString());
+        sort.setMaximumChunkSize(chunkBytes);
+        sort.setRadixSort(radix);
+        sort.splitChunks(fastq, "bench");
+        sort.mergeChunks();
+        Path output = sort.getOutput().output;
+        long size = Files.size(output);
+        Files.delete(output);
+        return size;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * K-mer counting of a random sequence with KmerIntersection. createFragmentMap
+ * counts one frame; allFrames counts every position with ByteString maps, as
+ * packedTable does with canonical k-mers in a KmerTable.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KmerIntersectionBenchmark {
+    @Param({"4000000"})
+    public int length;
+
+    @Param({"1", "4", "12", "18"})
+    public int fragmentLength;
+
+    private byte[] sequence;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        sequence = SyntheticData.sequence(length, SyntheticData.SEED);
+    }
+
+    @Benchmark
+    public Map<KmerIntersection.ByteString, KmerIntersection.ByteString> createFragmentMap(){
+        return KmerIntersection.createFragmentMap(sequence, 0, fragmentLength);
+    }
+
+    @Benchmark
+    public Map<KmerIntersection.ByteString, KmerIntersection.ByteString> allFrames(){
+        Map<KmerIntersection.ByteString, KmerIntersection.ByteString> map = KmerIntersection.createFragmentMap(sequence, 0, fragmentLength);
+        for(int offset = 1; offset < fragmentLength; offset++)
+            map = KmerIntersection.sumTwoMaps(map, KmerIntersection.createFragmentMap(sequence, offset, fragmentLength));
+        return map;
+    }
+
+    @Benchmark
+    public KmerTable packedTable(){
+        return KmerIntersection.countKmers(sequence, fragmentLength);
+    }
+}
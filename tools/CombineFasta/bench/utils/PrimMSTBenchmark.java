@@ -0,0 +1,82 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Prim's minimum spanning tree of a random sparse graph, and the indexed priority
+ * queue under it on its own.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrimMSTBenchmark {
+    @Param({"100000"})
+    public int vertices;
+
+    @Param({"4"})
+    public int degree;
+
+    private EdgeWeightedGraph graph;
+    private Double[] keys;
+    private Double[] lowered;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Random rand = new Random(SyntheticData.SEED);
+        graph = new EdgeWeightedGraph(vertices);
+        // A random path through every vertex keeps the graph connected
+        for(int v = 2; v < vertices; v++)
+            graph.AddEdge(new GraphEdge(v - 1, v, rand.nextDouble()));
+        for(long e = 0; e < (long) vertices * (degree - 2) / 2; e++)
+            graph.AddEdge(new GraphEdge(1 + rand.nextInt(vertices - 1), 1 + rand.nextInt(vertices - 1), rand.nextDouble()));
+
+        keys = new Double[vertices];
+        lowered = new Double[vertices];
+        for(int i = 0; i < vertices; i++){
+            keys[i] = rand.nextDouble();
+            lowered[i] = keys[i] * rand.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public PrimMST primMST(){
+        PrimMST mst = new PrimMST(graph);
+        mst.runPrim(graph);
+        return mst;
+    }
+
+    @Benchmark
+    public int indexedPriorityQueue(){
+        IndexedPriorityQueue<Double> pq = new IndexedPriorityQueue<>(vertices);
+        for(int i = 1; i < vertices; i++)
+            pq.insert(i, keys[i]);
+        for(int i = 1; i < vertices; i += 2)
+            pq.decreaseKey(i, lowered[i]);
+        int last = 0;
+        while(!pq.isEmpty())
+            last = pq.delMin();
+        return last;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to reverse complement a sequence with the approaches that the tools used
+ * before ReverseComplement, against the table kernel.
+ * @author dbickhart
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReverseComplementBenchmark {
+    private static final char[] CODES = {'A', 'T', 'G', 'C', 'N'};
+    private static final char[] REVCODES = {'T', 'A', 'C', 'G', 'N'};
+
+    @Param({"1000000"})
+    public int length;
+
+    private byte[] seq;
+    private byte[] codes;
+    private String str;
+    private ByteBuffer direct;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        Random rand = new Random(SyntheticData.SEED);
+        seq = new byte[length];
+        codes = new byte[length];
+        byte[] alphabet = {'A', 'C', 'G', 'T', 'a', 'c', 'g', 't', 'N'};
+        for(int i = 0; i < length; i++){
+            seq[i] = alphabet[rand.nextInt(alphabet.length)];
+            codes[i] = (byte) rand.nextInt(CODES.length);
+        }
+        str = new String(seq);
+        direct = ByteBuffer.allocateDirect(length);
+        direct.put(seq).flip();
+    }
+
+    // The kernel works in place, so each call flips the sequence back and forth
+    @Benchmark
+    public byte[] tableKernel(){
+        ReverseComplement.reverseComplement(seq);
+        return seq;
+    }
+
+    @Benchmark
+    public ByteBuffer tableKernelDirect(){
+        ReverseComplement.reverseComplement(direct);
+        return direct;
+    }
+
+    // As in AGPToFasta
+    @Benchmark
+    public byte[] switchPerBase(){
+        byte[] rev = new byte[seq.length];
+        for(int i = 0; i < seq.length; i++){
+            switch(seq[seq.length - i - 1]){
+                case 'A':
+                case 'a':
+                    rev[i] = 'T'; break;
+                case 'C':
+                case 'c':
+                    rev[i] = 'G'; break;
+                case 'G':
+                case 'g':
+                    rev[i] = 'C'; break;
+                case 'T':
+                case 't':
+                    rev[i] = 'A'; break;
+                default:
+                    rev[i] = 'N';
+            }
+        }
+        return rev;
+    }
+
+    // As in SubStringFastaCode
+    @Benchmark
+    public List<Character> characterList(){
+        List<Character> output = new ArrayList<>(codes.length);
+        for(int x = codes.length - 1; x >= 0; x--)
+            output.add(REVCODES[codes[x]]);
+        return output;
+    }
+
+    private enum Translate{
+        A("T"), C("G"), G("C"), T("A"), N("N");
+
+        private final String other;
+
+        Translate(String other){
+            this.other = other;
+        }
+    }
+
+    // As in the telomere Utils.rc
+    @Benchmark
+    public String stringEnumPerBase(){
+        StringBuilder st = new StringBuilder();
+        for(int i = str.length() - 1; i >= 0; i--){
+            Translate t = Translate.valueOf(Character.toString(str.charAt(i)).toUpperCase());
+            st.append(t.other);
+        }
+        return st.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Seeded sequence, read name and file generators for the benchmarks, so that
+ * every run and every release is measured on the same data.
+ * @author dbickhart
+ */
+public final class SyntheticData {
+    public static final long SEED = 20180615L;
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private SyntheticData(){
+    }
+
+    /**
+     * @return uniformly random ACGT sequence
+     */
+    public static byte[] sequence(int length, long seed){
+        Random rand = new Random(seed);
+        byte[] seq = new byte[length];
+        for(int i = 0; i < length; i++)
+            seq[i] = BASES[rand.nextInt(4)];
+        return seq;
+    }
+
+    /**
+     * Illumina style read names, in a random tile and position order
+     * @param flowcell distinguishes separate sets of names
+     */
+    public static byte[][] readNames(int count, String flowcell, long seed){
+        Random rand = new Random(seed);
+        byte[][] names = new byte[count][];
+        for(int i = 0; i < count; i++)
+            names[i] = readName(flowcell, rand, i).getBytes(StandardCharsets.US_ASCII);
+        return names;
+    }
+
+    private static String readName(String flowcell, Random rand, int i){
+        return "A00123:8:" + flowcell + ":" + (1 + rand.nextInt(4)) + ":" + (1101 + rand.nextInt(2000))
+                + ":" + rand.nextInt(32000) + ":" + i;
+    }
+
+    /**
+     * Writes reads with random names, bases and qualities
+     */
+    public static void writeFastq(Path file, int reads, int readLength, long seed) throws IOException{
+        Random rand = new Random(seed);
+        byte[] seq = new byte[readLength];
+        byte[] qual = new byte[readLength];
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)){
+            for(int i = 0; i < reads; i++){
+                for(int j = 0; j < readLength; j++){
+                    seq[j] = BASES[rand.nextInt(4)];
+                    qual[j] = (byte) ('#' + rand.nextInt(40));
+                }
+                out.write('@');
+                out.write((readName("H5KJ2DSXX", rand, i) + " 1:N:0:1\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(seq);
+                out.write("\n+\n".getBytes(StandardCharsets.US_ASCII));
+                out.write(qual);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes random contigs named contig0, contig1 ... wrapped at a fixed line width,
+     * and their samtools .fai index next to the fasta
+     */
+    public static void writeFasta(Path file, int contigs, int contigLength, int lineWidth, long seed) throws IOException{
+        StringBuilder fai = new StringBuilder();
+        long offset = 0;
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)){
+            for(int c = 0; c < contigs; c++){
+                byte[] seq = sequence(contigLength, seed + c);
+                byte[] head = (">contig" + c + "\n").getBytes(StandardCharsets.US_ASCII);
+                out.write(head);
+                offset += head.length;
+                fai.append("contig").append(c).append('\t').append(contigLength).append('\t').append(offset)
+                        .append('\t').append(lineWidth).append('\t').append(lineWidth + 1).append('\n');
+                for(int i = 0; i < contigLength; i += lineWidth){
+                    int len = Math.min(lineWidth, contigLength - i);
+                    out.write(seq, i, len);
+                    out.write('\n');
+                    offset += len + 1;
+                }
+            }
+        }
+        Files.write(file.resolveSibling(file.getFileName().toString() + ".fai"), fai.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import gziputils.ReaderReturn;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads fasta records from a plain or gzipped file as raw bytes. Headers are
+ * returned one at a time and the sequence that follows each header is passed
+ * straight to a FastaChannelWriter in runs, with all line terminators and other
+ * whitespace removed.
+ * @author dbickhart
+ */
+public class FastaChannelReader implements AutoCloseable{
+    // 4 megabytes of input are read from the channel at a time
+    private static final int BUFFER_SIZE = 1 << 22;
+
+    private final ReadableByteChannel channel;
+    // The channel reads straight into the array that is scanned
+    private final byte[] block = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(block);
+    private int pos = 0;
+    private int limit = 0;
+    private boolean lineStart = true;
+    private byte[] header = new byte[256];
+
+    public FastaChannelReader(Path input) throws IOException{
+        if(ReaderReturn.isGZipped(input.toFile()))
+            this.channel = Channels.newChannel(new GZIPInputStream(Files.newInputStream(input), 1 << 16));
+        else
+            this.channel = FileChannel.open(input, StandardOpenOption.READ);
+    }
+
+    /**
+     * Moves to the next header line, skipping any sequence left in the current record
+     * @return the header without its leading '>' and line terminator, or null at the end of the file
+     * @throws IOException
+     */
+    public String nextHeader() throws IOException{
+        // Find a '>' at the start of a line
+        while(true){
+            if(pos == limit && !fill())
+                return null;
+            byte b = block[pos++];
+            if(b == '>' && lineStart)
+                break;
+            lineStart = b == '\n';
+        }
+
+        int len = 0;
+        while(true){
+            if(pos == limit && !fill())
+                break;
+            byte b = block[pos++];
+            if(b == '\n')
+                break;
+            if(len == header.length)
+                header = Arrays.copyOf(header, len * 2);
+            header[len++] = b;
+        }
+        if(len > 0 && header[len - 1] == '\r')
+            len--;
+        lineStart = true;
+        return new String(header, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the sequence of the current record, up to the next header line
+     * @param writer destination of the sequence bytes
+     * @return the number of bases copied
+     * @throws IOException
+     */
+    public long copySequence(FastaChannelWriter writer) throws IOException{
+        long bases = 0;
+        while(pos < limit || fill()){
+            int run = pos;
+            int i = pos;
+            for(; i < limit; i++){
+                byte b = block[i];
+                if(b > ' '){
+                    if(b == '>' && lineStart)
+                        break;
+                    lineStart = false;
+                }else{
+                    if(i > run){
+                        writer.write(block, run, i - run);
+                        bases += i - run;
+                    }
+                    run = i + 1;
+                    if(b == '\n')
+                        lineStart = true;
+                }
+            }
+            if(i > run){
+                writer.write(block, run, i - run);
+                bases += i - run;
+            }
+            pos = i;
+            if(i < limit)
+                break;
+        }
+        return bases;
+    }
+
+    private boolean fill() throws IOException{
+        buffer.clear();
+        int read;
+        while((read = channel.read(buffer)) == 0);
+        if(read < 0){
+            pos = limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import misassemblyLDCorrection.FastaIndexEntry;
+
+/**
+ * Writes line-wrapped fasta records to a file channel through one fixed size
+ * byte buffer. The current line column is carried across every write call so
+ * that sequence from different sources (and N padding) wraps as one record.
+ * Since the writer knows every record's byte offset and line layout, it can also
+ * collect the samtools .fai entries and report runs of N (as seqtk cutN -g does)
+ * without another pass over the output.
+ * @author dbickhart
+ */
+public class FastaChannelWriter implements AutoCloseable{
+    // 4 megabytes of output are held before each channel write
+    private static final int BUFFER_SIZE = 1 << 22;
+    private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NBLOCK = new byte[4096];
+    // Anything other than ACGT counts towards a gap, following seqtk's nt6 table
+    private static final boolean[] GAP = new boolean[256];
+    static {
+        Arrays.fill(NBLOCK, (byte) 'N');
+        Arrays.fill(GAP, true);
+        for(byte b : "ACGTacgt".getBytes(StandardCharsets.US_ASCII))
+            GAP[b] = false;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final int lineWidth;
+    // Shared channels are written with positional writes and are not closed by this writer
+    private final boolean shared;
+    private int column = 0;
+    private long recordBases = 0;
+    private boolean inRecord = false;
+    // Total bytes handed to the writer, flushed or not
+    private long position = 0;
+
+    private String recordName;
+    private long recordOffset;
+    private List<FastaIndexEntry> index = null;
+
+    private BufferedWriter gapOutput = null;
+    private int minGap;
+    private long gapStart = -1;
+
+    public FastaChannelWriter(Path output, int lineWidth) throws IOException{
+        if(lineWidth < 1)
+            throw new IllegalArgumentException("Fasta line width must be a positive number!");
+        this.channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.lineWidth = lineWidth;
+        this.shared = false;
+    }
+
+    /**
+     * Writes into part of a channel that other writers may be filling at the same
+     * time. Each flush is a positional write, starting from the offset given to moveTo
+     * @param channel an open, writable channel; not closed by this writer
+     * @param lineWidth bases per sequence line
+     */
+    public FastaChannelWriter(FileChannel channel, int lineWidth){
+        if(lineWidth < 1)
+            throw new IllegalArgumentException("Fasta line width must be a positive number!");
+        this.channel = channel;
+        this.lineWidth = lineWidth;
+        this.shared = true;
+    }
+
+    /**
+     * The number of bytes that a record takes up in the output
+     * @param name the header, without the '>'
+     * @param bases the sequence length
+     * @param lineWidth bases per sequence line
+     * @return the record's size in bytes
+     */
+    public static long recordSize(String name, long bases, int lineWidth){
+        long lines = (bases + lineWidth - 1) / lineWidth;
+        return 1 + name.getBytes(StandardCharsets.UTF_8).length + NL.length + bases + lines * NL.length;
+    }
+
+    /**
+     * Sets the output offset of the next record on a shared channel
+     * @param offset byte offset of the next record in the output
+     * @throws IOException
+     */
+    public void moveTo(long offset) throws IOException{
+        if(inRecord)
+            endRecord();
+        flush();
+        this.position = offset;
+    }
+
+    /**
+     * @return the output offset that the next written byte will go to
+     */
+    public long getPosition(){
+        return this.position;
+    }
+
+    /**
+     * Keeps a .fai entry for each record written from now on
+     */
+    public void trackIndex(){
+        if(this.index == null)
+            this.index = new ArrayList<>();
+    }
+
+    /**
+     * Writes the coordinates of ambiguous base runs as "name start end" bed lines
+     * @param gapOutput destination of the gap bed lines; not closed by this writer
+     * @param minGap the smallest run of N's that is reported
+     */
+    public void trackGaps(BufferedWriter gapOutput, int minGap){
+        this.gapOutput = gapOutput;
+        this.minGap = minGap;
+    }
+
+    public void startRecord(String name) throws IOException{
+        if(inRecord)
+            endRecord();
+        byte[] head = name.getBytes(StandardCharsets.UTF_8);
+        ensure(head.length + 1 + NL.length);
+        buffer.put((byte) '>').put(head).put(NL);
+        position += head.length + 1 + NL.length;
+        // samtools only keeps the first word of the header
+        this.recordName = name.trim().split("\\s+")[0];
+        this.recordOffset = position;
+        this.recordBases = 0;
+        this.gapStart = -1;
+        this.inRecord = true;
+    }
+
+    /**
+     * Appends sequence bytes to the current record, wrapping lines as needed
+     * @param bases sequence bytes with no line terminators
+     * @param off start of the run in bases
+     * @param len number of bytes to write
+     * @throws IOException
+     */
+    public void write(byte[] bases, int off, int len) throws IOException{
+        if(gapOutput != null)
+            scanGaps(bases, off, len);
+        append(bases, off, len);
+    }
+
+    public void writeN(long count) throws IOException{
+        if(gapOutput != null && count > 0 && gapStart < 0)
+            gapStart = recordBases;
+        while(count > 0){
+            int take = (int) Math.min(count, NBLOCK.length);
+            append(NBLOCK, 0, take);
+            count -= take;
+        }
+    }
+
+    private void append(byte[] bases, int off, int len) throws IOException{
+        while(len > 0){
+            int take = Math.min(len, lineWidth - column);
+            ensure(take + NL.length);
+            buffer.put(bases, off, take);
+            column += take;
+            off += take;
+            len -= take;
+            recordBases += take;
+            position += take;
+            if(column == lineWidth){
+                buffer.put(NL);
+                position += NL.length;
+                column = 0;
+            }
+        }
+    }
+
+    private void scanGaps(byte[] bases, int off, int len) throws IOException{
+        long base = recordBases - off;
+        for(int i = off; i < off + len; i++){
+            if(GAP[bases[i] & 0xff]){
+                if(gapStart < 0)
+                    gapStart = base + i;
+            }else if(gapStart >= 0){
+                closeGap(base + i);
+            }
+        }
+    }
+
+    private void closeGap(long end) throws IOException{
+        if(end - gapStart >= minGap){
+            gapOutput.write(recordName + "\t" + gapStart + "\t" + end);
+            gapOutput.newLine();
+        }
+        gapStart = -1;
+    }
+
+    public void endRecord() throws IOException{
+        if(column > 0){
+            ensure(NL.length);
+            buffer.put(NL);
+            position += NL.length;
+            column = 0;
+        }
+        if(gapOutput != null && gapStart >= 0)
+            closeGap(recordBases);
+        if(index != null){
+            // As samtools does, a record shorter than one line lists its own length, and an empty one lists zero
+            long lineBases = Math.min(recordBases, lineWidth);
+            index.add(new FastaIndexEntry(recordName, recordBases, recordOffset, lineBases, (lineBases == 0)? 0 : lineBases + NL.length));
+        }
+        this.inRecord = false;
+    }
+
+    public long getRecordBases(){
+        return this.recordBases;
+    }
+
+    public int getLineWidth(){
+        return this.lineWidth;
+    }
+
+    public List<FastaIndexEntry> getIndex(){
+        return this.index;
+    }
+
+    /**
+     * Writes the collected index entries in samtools .fai format
+     * @param fai output index file
+     * @throws IOException
+     */
+    public void writeIndex(Path fai) throws IOException{
+        try(BufferedWriter output = Files.newBufferedWriter(fai, Charset.defaultCharset())){
+            for(FastaIndexEntry e : this.index){
+                output.write(e.toString());
+                output.newLine();
+            }
+        }
+    }
+
+    private void ensure(int bytes) throws IOException{
+        if(buffer.remaining() < bytes)
+            flush();
+    }
+
+    public void flush() throws IOException{
+        buffer.flip();
+        // Buffered bytes always end at the current position
+        long offset = position - buffer.remaining();
+        while(buffer.hasRemaining()){
+            if(shared)
+                offset += channel.write(buffer, offset);
+            else
+                channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(inRecord)
+            endRecord();
+        flush();
+        if(!shared)
+            channel.close();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import misassemblyLDCorrection.FastaIndexEntry;
+import utils.ReverseComplement;
+
+/**
+ * The sequence of the first entry in a fasta file, or of a region of an indexed
+ * fasta, streamed block by block into a FastaChannelWriter. Reverse segments are read backwards from the end of the
+ * entry so that no more than one block of sequence is ever held in memory.
+ * @author dbickhart
+ */
+public class FastaSegment {
+    private final Path source;
+    private final boolean reverse;
+    private String name;
+    // AGP component name and zero-based start
+    private String component;
+    private long componentStart = 0;
+    // Byte offsets of the sequence lines in the source file; seqEnd is found lazily
+    private long seqStart = -1;
+    private long seqEnd = -1;
+
+    public FastaSegment(Path source, boolean reverse){
+        this.source = source;
+        this.reverse = reverse;
+        this.name = source.getFileName().toString();
+        this.component = this.name;
+    }
+    
+    /**
+     * A region of an indexed fasta, read in place with positional reads
+     * @param source the fasta file that the index describes
+     * @param entry the .fai entry of the region's sequence
+     * @param start zero-based, inclusive start position
+     * @param end zero-based, exclusive end position
+     * @param reverse true if the region should be reverse complemented
+     */
+    public FastaSegment(Path source, FastaIndexEntry entry, long start, long end, boolean reverse){
+        this.source = source;
+        this.reverse = reverse;
+        this.name = entry.getName() + ":" + (start + 1) + "-" + end;
+        this.component = entry.getName();
+        this.componentStart = start;
+        if(end > start){
+            this.seqStart = entry.getByteOffset(start);
+            this.seqEnd = entry.getByteOffset(end - 1) + 1;
+        }else{
+            this.seqStart = entry.startByte;
+            this.seqEnd = entry.startByte;
+        }
+    }
+
+    /**
+     * Streams this segment into the writer
+     * @param writer destination record; must already be started
+     * @param block scratch space, reused between segments
+     * @return the number of bases written
+     * @throws IOException
+     */
+    public long write(FastaChannelWriter writer, byte[] block) throws IOException{
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ)){
+            if(seqStart < 0)
+                readHeader(in, block);
+            if(reverse){
+                if(seqEnd < 0)
+                    seqEnd = findEntryEnd(in, block);
+                return writeReverse(in, writer, block);
+            }
+            return writeForward(in, writer, block);
+        }
+    }
+
+    private void readHeader(FileChannel in, byte[] block) throws IOException{
+        int n = readAt(in, block, block.length, 0);
+        if(n <= 0 || block[0] != '>'){
+            // headerless sequence file
+            seqStart = 0;
+            return;
+        }
+        long pos = 0;
+        StringBuilder head = new StringBuilder();
+        while(n > 0){
+            for(int i = 0; i < n; i++){
+                if(block[i] == '\n'){
+                    head.append(new String(block, 0, i, StandardCharsets.UTF_8));
+                    setName(head.toString());
+                    seqStart = pos + i + 1;
+                    return;
+                }
+            }
+            head.append(new String(block, 0, n, StandardCharsets.UTF_8));
+            pos += n;
+            n = readAt(in, block, block.length, pos);
+        }
+        // A header with no sequence
+        setName(head.toString());
+        seqStart = pos;
+        seqEnd = pos;
+    }
+
+    private void setName(String header){
+        this.name = header.replaceFirst(">", "").trim();
+        if(!this.name.isEmpty())
+            this.component = this.name.split("\\s+")[0];
+    }
+
+    private long writeForward(FileChannel in, FastaChannelWriter writer, byte[] block) throws IOException{
+        long pos = seqStart, bases = 0;
+        boolean lineStart = true;
+        while(seqEnd < 0 || pos < seqEnd){
+            int want = (seqEnd < 0)? block.length : (int) Math.min(block.length, seqEnd - pos);
+            int n = readAt(in, block, want, pos);
+            if(n <= 0)
+                break;
+            int run = 0;
+            for(int i = 0; i < n; i++){
+                byte b = block[i];
+                if(b > ' ' && !(b == '>' && lineStart)){
+                    lineStart = false;
+                    continue;
+                }
+                if(i > run){
+                    writer.write(block, run, i - run);
+                    bases += i - run;
+                }
+                run = i + 1;
+                if(b == '>'){
+                    // Reached the next fasta entry
+                    seqEnd = pos + i;
+                    return bases;
+                }
+                lineStart = (b == '\n');
+            }
+            if(n > run){
+                writer.write(block, run, n - run);
+                bases += n - run;
+            }
+            pos += n;
+        }
+        seqEnd = pos;
+        return bases;
+    }
+
+    private long writeReverse(FileChannel in, FastaChannelWriter writer, byte[] block) throws IOException{
+        long pos = seqEnd, bases = 0;
+        while(pos > seqStart){
+            int len = (int) Math.min(block.length, pos - seqStart);
+            pos -= len;
+            int n = readAt(in, block, len, pos);
+            // Drop line terminators, then reverse complement the block in place
+            int o = 0;
+            for(int i = 0; i < n; i++){
+                if(block[i] > ' ')
+                    block[o++] = block[i];
+            }
+            ReverseComplement.reverseComplement(block, 0, o);
+            writer.write(block, 0, o);
+            bases += o;
+        }
+        return bases;
+    }
+
+    // Scans forward from the first sequence line to the start of the next entry (or EOF)
+    private long findEntryEnd(FileChannel in, byte[] block) throws IOException{
+        long pos = seqStart;
+        boolean lineStart = true;
+        int n;
+        while((n = readAt(in, block, block.length, pos)) > 0){
+            for(int i = 0; i < n; i++){
+                if(block[i] == '>' && lineStart)
+                    return pos + i;
+                lineStart = (block[i] == '\n');
+            }
+            pos += n;
+        }
+        return pos;
+    }
+
+    static int readAt(FileChannel in, byte[] block, int len, long pos) throws IOException{
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, len);
+        while(buf.hasRemaining()){
+            int r = in.read(buf, pos + buf.position());
+            if(r < 0)
+                break;
+        }
+        return buf.position();
+    }
+
+    public long getByteSize(){
+        if(seqStart >= 0 && seqEnd >= 0)
+            return seqEnd - seqStart;
+        return source.toFile().length();
+    }
+
+    public String getName(){
+        return this.name;
+    }
+
+    public String getComponentName(){
+        return this.component;
+    }
+
+    public long getComponentStart(){
+        return this.componentStart;
+    }
+
+    public Path getSource(){
+        return this.source;
+    }
+
+    public boolean isReverse(){
+        return this.reverse;
+    }
+}
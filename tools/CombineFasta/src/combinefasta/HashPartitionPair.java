@@ -0,0 +1,310 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import gziputils.ReaderReturn;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utils.FastqRecordReader;
+
+/**
+ * Pairs the reads of two fastq files without sorting either of them. Both files
+ * are split in one streaming pass into partitions on disk by a hash of the read
+ * name, so that mates always land in partitions with the same number. Each
+ * partition pair is small enough to be matched in memory, and partitions are
+ * matched in parallel. With more than one thread, matched blocks of different
+ * partitions are written as they fill, so the read order is neither name order
+ * nor partition order and can change between runs. Each pair of blocks is
+ * written under one lock, so the two output files stay in step.
+ * @author dbickhart
+ */
+public class HashPartitionPair {
+    private static final Logger log = Logger.getLogger(HashPartitionPair.class.getName());
+    private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    // Matched reads are collected in blocks of this size before each locked write
+    private static final int FLUSH_SIZE = 1 << 20;
+    // Both files hold one open stream per partition while they are split
+    private static final int MAX_PARTITIONS = 400;
+    private final Path forwardFile;
+    private final Path reverseFile;
+    private final String outbase;
+    private final int threads;
+    private final int partitions;
+    private final AtomicLong pairs = new AtomicLong(0);
+    private final AtomicLong orphans = new AtomicLong(0);
+    private OutputStream firstOut;
+    private OutputStream secondOut;
+
+    public HashPartitionPair(Path forwardFile, Path reverseFile, String outbase, int threads){
+        this.forwardFile = forwardFile;
+        this.reverseFile = reverseFile;
+        this.outbase = outbase;
+        this.threads = (threads < 1)? 1 : threads;
+        this.partitions = choosePartitions(forwardFile, this.threads);
+    }
+
+    /*
+     * A partition of the forward file is held in memory by each thread, so the
+     * forward file is cut into pieces of about a quarter of each thread's heap share
+     */
+    private static int choosePartitions(Path forwardFile, int threads){
+        long bytes = forwardFile.toFile().length();
+        // gzipped fastq usually expands four to six fold
+        if(ReaderReturn.isGZipped(forwardFile.toFile()))
+            bytes *= 6;
+        long target = Math.min(1L << 30, Runtime.getRuntime().maxMemory() / (4L * threads));
+        long count = (bytes + target - 1) / target;
+        return (int) Math.max(threads, Math.min(MAX_PARTITIONS, count));
+    }
+
+    private int getPartition(long hash){
+        // The high half of the hash picks the partition; the low half is used by the match tables
+        return (int) (((hash >>> 32) * partitions) >>> 32);
+    }
+
+    /**
+     * @return false if any partition could not be split or matched; the paired
+     * output files are removed in that case
+     */
+    public boolean run(){
+        log.log(Level.INFO, "Splitting reads into " + partitions + " partitions");
+        SplitJob first = new SplitJob(forwardFile, "1");
+        SplitJob second = new SplitJob(reverseFile, "2");
+        Path firstOutput = Paths.get(outbase + ".1.fastq");
+        Path secondOutput = Paths.get(outbase + ".2.fastq");
+        boolean complete = false;
+        try{
+            List<Callable<Void>> splits = new ArrayList<>(2);
+            splits.add(first);
+            splits.add(second);
+            runJobs(splits, 2, "fastq partition");
+            log.log(Level.INFO, "Completed read partitioning");
+
+            try(OutputStream o1 = new BufferedOutputStream(Files.newOutputStream(firstOutput), 1 << 16);
+                    OutputStream o2 = new BufferedOutputStream(Files.newOutputStream(secondOutput), 1 << 16)){
+                this.firstOut = o1;
+                this.secondOut = o2;
+                List<Callable<Void>> matches = new ArrayList<>(partitions);
+                for(int i = 0; i < partitions; i++)
+                    matches.add(new MatchJob(first, second, i));
+                runJobs(matches, threads, "read pairing");
+            }
+            complete = true;
+        }catch(IOException | InterruptedException | ExecutionException ex){
+            log.log(Level.SEVERE, "Error writing paired fastq files with base name: " + outbase, ex);
+        }finally{
+            first.delete();
+            second.delete();
+        }
+
+        if(!complete){
+            // A failed partition leaves its reads out of both files, so none of the output can be trusted
+            try{
+                Files.deleteIfExists(firstOutput);
+                Files.deleteIfExists(secondOutput);
+            }catch(IOException ex){
+                log.log(Level.SEVERE, "Could not delete incomplete paired fastq files with base name: " + outbase, ex);
+            }
+            return false;
+        }
+        log.log(Level.INFO, "Wrote " + pairs.get() + " read pairs and filtered " + orphans.get() + " one-sided reads");
+        return true;
+    }
+
+    private static void runJobs(List<Callable<Void>> jobs, int threads, String name) throws IOException, InterruptedException, ExecutionException{
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(jobs.size());
+        for(Callable<Void> j : jobs)
+            futures.add(executor.submit(j));
+        executor.shutdown();
+        if(!executor.awaitTermination(12, TimeUnit.HOURS)){
+            executor.shutdownNow();
+            throw new IOException("The " + name + " jobs did not finish!");
+        }
+        for(Future<Void> f : futures)
+            f.get();
+    }
+
+    private synchronized void write(ByteArrayOutputStream r1, ByteArrayOutputStream r2) throws IOException{
+        r1.writeTo(firstOut);
+        r2.writeTo(secondOut);
+        r1.reset();
+        r2.reset();
+    }
+
+    private class SplitJob implements Callable<Void>{
+        private final Path input;
+        public final Path[] parts = new Path[partitions];
+        public final long[] counts = new long[partitions];
+
+        public SplitJob(Path input, String mate){
+            this.input = input;
+            for(int i = 0; i < partitions; i++){
+                this.parts[i] = Paths.get(outbase + "." + mate + ".part" + i + ".tmp");
+                this.parts[i].toFile().deleteOnExit();
+            }
+        }
+
+        @Override
+        public Void call() throws IOException {
+            OutputStream[] outputs = new OutputStream[partitions];
+            IOException error = null;
+            try(FastqRecordReader reader = new FastqRecordReader(input)){
+                for(int i = 0; i < partitions; i++)
+                    outputs[i] = new BufferedOutputStream(Files.newOutputStream(parts[i]), 1 << 16);
+                while(reader.next()){
+                    int p = getPartition(reader.getNameHash());
+                    reader.writeTo(outputs[p], NL);
+                    counts[p]++;
+                }
+            }catch(IOException ex){
+                error = new IOException("Error partitioning fastq file: " + input.toString(), ex);
+            }finally{
+                // An unflushed partition is as bad as a failed read, so close errors are kept too
+                for(OutputStream o : outputs){
+                    try{
+                        if(o != null)
+                            o.close();
+                    }catch(IOException ex){
+                        if(error == null)
+                            error = new IOException("Error closing partition file!", ex);
+                        else
+                            error.addSuppressed(ex);
+                    }
+                }
+            }
+            if(error != null)
+                throw error;
+            return null;
+        }
+
+        public void delete(){
+            for(Path p : parts)
+                p.toFile().delete();
+        }
+    }
+
+    private class MatchJob implements Callable<Void>{
+        private final SplitJob first;
+        private final SplitJob second;
+        private final int partition;
+
+        public MatchJob(SplitJob first, SplitJob second, int partition){
+            this.first = first;
+            this.second = second;
+            this.partition = partition;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            long matched = 0, secondCount = 0;
+            try{
+                // Forward records are kept as [record length][name length][record] in one array
+                long size = Files.size(first.parts[partition]) + 8 * first.counts[partition];
+                if(size > Integer.MAX_VALUE - 8)
+                    throw new IOException("Partition " + partition + " is too large to hold in memory!");
+                byte[] arena = new byte[(int) size];
+                int tableSize = Integer.highestOneBit((int) Math.max(8, first.counts[partition] * 2)) * 2;
+                int mask = tableSize - 1;
+                long[] hashes = new long[tableSize];
+                int[] offsets = new int[tableSize];
+                boolean[] taken = new boolean[tableSize];
+                Arrays.fill(offsets, -1);
+
+                int used = 0;
+                try(FastqRecordReader reader = new FastqRecordReader(new BufferedInputStream(Files.newInputStream(first.parts[partition]), 1 << 16), first.parts[partition].toString())){
+                    while(reader.next()){
+                        long hash = reader.getNameHash();
+                        int slot = (int) hash & mask;
+                        while(offsets[slot] != -1)
+                            slot = (slot + 1) & mask;
+                        hashes[slot] = hash;
+                        offsets[slot] = used;
+                        int end = reader.writeTo(arena, used + 8, NL);
+                        putInt(arena, used, end - used - 8);
+                        putInt(arena, used + 4, reader.getNameEnd() - reader.getNameStart());
+                        used = end;
+                    }
+                }
+
+                ByteArrayOutputStream r1 = new ByteArrayOutputStream();
+                ByteArrayOutputStream r2 = new ByteArrayOutputStream();
+                try(FastqRecordReader reader = new FastqRecordReader(new BufferedInputStream(Files.newInputStream(second.parts[partition]), 1 << 16), second.parts[partition].toString())){
+                    while(reader.next()){
+                        secondCount++;
+                        long hash = reader.getNameHash();
+                        int slot = (int) hash & mask;
+                        for(; offsets[slot] != -1; slot = (slot + 1) & mask){
+                            if(hashes[slot] == hash && !taken[slot] && sameName(arena, offsets[slot], reader))
+                                break;
+                        }
+                        if(offsets[slot] == -1)
+                            continue;
+                        taken[slot] = true;
+                        r1.write(arena, offsets[slot] + 8, getInt(arena, offsets[slot]));
+                        reader.writeTo(r2, NL);
+                        matched++;
+                        if(r1.size() >= FLUSH_SIZE)
+                            write(r1, r2);
+                    }
+                }
+                if(r1.size() > 0)
+                    write(r1, r2);
+            }catch(IOException ex){
+                throw new IOException("Error pairing reads in partition: " + partition, ex);
+            }finally{
+                first.parts[partition].toFile().delete();
+                second.parts[partition].toFile().delete();
+            }
+            pairs.addAndGet(matched);
+            orphans.addAndGet(first.counts[partition] + secondCount - 2 * matched);
+            return null;
+        }
+
+        private boolean sameName(byte[] arena, int offset, FastqRecordReader reader){
+            int len = getInt(arena, offset + 4);
+            if(len != reader.getNameEnd() - reader.getNameStart())
+                return false;
+            byte[] record = reader.getRecord();
+            int start = reader.getNameStart();
+            for(int i = 0; i < len; i++){
+                if(arena[offset + 8 + i] != record[start + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static void putInt(byte[] a, int i, int v){
+        a[i] = (byte) (v >>> 24);
+        a[i + 1] = (byte) (v >>> 16);
+        a[i + 2] = (byte) (v >>> 8);
+        a[i + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] a, int i){
+        return (a[i] & 0xff) << 24 | (a[i + 1] & 0xff) << 16 | (a[i + 2] & 0xff) << 8 | (a[i + 3] & 0xff);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import GetCmdOpt.ArrayModeCmdLineParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Intersects the k-mers of an assembly with those of a read set, without holding
+ * either set in memory. Each input is counted by KmerCount into sorted runs of
+ * each hash shard, written to disk whenever its tables reach the memory budget.
+ * The two inputs are split into the same shards, so every shard is then merged
+ * and joined on its own, in parallel.
+ *
+ * The spectra file (output base + .spectra) counts distinct k-mers by their read
+ * count (rows, capped at KmerCount.HISTO_MAX) and their copies in the assembly
+ * (columns, with the last column for COPIES or more). The read count 0 row holds
+ * the assembly-only k-mers, and the 0 copies column the read-only k-mers. The
+ * summary (output base + .summary) gives the shared, assembly-only and read-only
+ * totals, the completeness (the share of read k-mers seen at least minCount
+ * times that are in the assembly) and a consensus QV from the assembly-only
+ * k-mers, as Merqury estimates it.
+ * @author dbickhart
+ */
+public class KmerCompare {
+    private static final Logger log = Logger.getLogger(KmerCompare.class.getName());
+    public static final int COPIES = 5;
+    // Most runs of one input and shard merged at once; each holds an open file and a buffer
+    private static final int MAX_FAN_IN = 64;
+    private final Path assembly;
+    private final Path reads;
+    private final String outbase;
+    private final int k;
+    private final int threads;
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private Path tempDir;
+    private int minCount = 2;
+    private int blockSize = 1 << 21;
+    private int maxFanIn = MAX_FAN_IN;
+
+    private final long[][] spectra = new long[KmerCount.HISTO_MAX + 1][COPIES + 1];
+    private long assemblyKmers = 0;
+    private long assemblyOnlyKmers = 0;
+    private long solid = 0;
+    private long solidShared = 0;
+
+    public KmerCompare(Path assembly, Path reads, String outbase, int k, int threads){
+        this.assembly = assembly;
+        this.reads = reads;
+        this.outbase = outbase;
+        this.k = k;
+        this.threads = (threads < 1)? 1 : threads;
+        this.tempDir = Paths.get(outbase).toAbsolutePath().getParent();
+    }
+
+    public KmerCompare(ArrayModeCmdLineParser cmd){
+        this(Paths.get(cmd.GetValue("assembly")), Paths.get(cmd.GetValue("reads")), cmd.GetValue("output"),
+                (cmd.HasOpt("kmer"))? Integer.parseInt(cmd.GetValue("kmer")) : KmerCount.DEFAULT_K,
+                (cmd.HasOpt("threads"))? Integer.parseInt(cmd.GetValue("threads")) : 1);
+        if(cmd.HasOpt("memory"))
+            this.setMemoryBudget(Long.parseLong(cmd.GetValue("memory")) * 1024L * 1024L);
+        if(cmd.HasOpt("temp"))
+            this.setTempDirectory(cmd.GetValue("temp"));
+        if(cmd.HasOpt("mincount"))
+            this.setMinCount(Integer.parseInt(cmd.GetValue("mincount")));
+    }
+
+    /**
+     * @param bytes the memory the count tables of one input may take before they are written out as runs
+     */
+    public void setMemoryBudget(long bytes){
+        this.memoryBudget = bytes;
+    }
+
+    public void setTempDirectory(String dir){
+        this.tempDir = Paths.get(dir);
+    }
+
+    /**
+     * @param minCount the read count below which read k-mers are taken as errors for completeness
+     */
+    public void setMinCount(int minCount){
+        this.minCount = minCount;
+    }
+
+    /**
+     * @param blockSize the number of bases read into each block by KmerCount
+     */
+    public void setBlockSize(int blockSize){
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param fanIn the most runs merged at once; more are first merged in groups into fewer runs
+     */
+    void setMaximumFanIn(int fanIn){
+        this.maxFanIn = (fanIn < 2)? 2 : fanIn;
+    }
+
+    public long[][] getSpectra(){
+        return spectra;
+    }
+
+    public void run(){
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Path runDir = null;
+        List<KmerCount> counts = new ArrayList<>(2);
+        try{
+            runDir = Files.createTempDirectory(tempDir, "kmercompare");
+            for(Path input : new Path[]{assembly, reads}){
+                Path dir = Files.createDirectory(runDir.resolve("input" + counts.size()));
+                KmerCount count = new KmerCount(input, outbase, k, threads);
+                count.setSpill(dir, memoryBudget);
+                count.setBlockSize(blockSize);
+                counts.add(count);
+                if(!count.count(executor))
+                    return;
+                // Every k-mer is in the runs now, so the tables are dropped before the next input is counted
+                count.release();
+                log.log(Level.INFO, "Counted " + count.total() + " " + k + "-mers in " + input.toString());
+            }
+
+            KmerCount asm = counts.get(0);
+            KmerCount rds = counts.get(1);
+            List<Callable<Join>> joins = new ArrayList<>(asm.getShards());
+            for(int s = 0; s < asm.getShards(); s++){
+                final List<Path> asmRuns = asm.getRuns(s);
+                final List<Path> readRuns = rds.getRuns(s);
+                joins.add(() -> new Join(asmRuns, readRuns).run());
+            }
+            for(Future<Join> f : executor.invokeAll(joins))
+                add(f.get());
+        }catch(IOException | InterruptedException | ExecutionException ex){
+            log.log(Level.SEVERE, "Error comparing k-mers of " + assembly.toString() + " and " + reads.toString(), ex);
+            return;
+        }finally{
+            executor.shutdown();
+            try {
+                executor.awaitTermination(12, TimeUnit.HOURS);
+            } catch (InterruptedException ex) {
+                log.log(Level.SEVERE, "Error terminating k-mer comparison thread pool!", ex);
+            }
+            if(runDir != null)
+                delete(runDir.toFile());
+        }
+
+        writeSpectra();
+        writeSummary();
+    }
+
+    private static void delete(File file){
+        File[] files = file.listFiles();
+        if(files != null)
+            for(File f : files)
+                delete(f);
+        file.delete();
+    }
+
+    private void add(Join join){
+        for(int r = 0; r < spectra.length; r++)
+            for(int c = 0; c <= COPIES; c++)
+                spectra[r][c] += join.spectra[r][c];
+        assemblyKmers += join.assemblyKmers;
+        assemblyOnlyKmers += join.assemblyOnlyKmers;
+        solid += join.solid;
+        solidShared += join.solidShared;
+    }
+
+    public long shared(){
+        long shared = 0;
+        for(int r = 1; r < spectra.length; r++)
+            for(int c = 1; c <= COPIES; c++)
+                shared += spectra[r][c];
+        return shared;
+    }
+
+    public long assemblyOnly(){
+        long only = 0;
+        for(int c = 1; c <= COPIES; c++)
+            only += spectra[0][c];
+        return only;
+    }
+
+    public long readOnly(){
+        long only = 0;
+        for(int r = 1; r < spectra.length; r++)
+            only += spectra[r][0];
+        return only;
+    }
+
+    public double completeness(){
+        return (solid == 0)? 0.0 : 100.0 * solidShared / solid;
+    }
+
+    public double qv(){
+        if(assemblyKmers == 0)
+            return 0.0;
+        double error = 1.0 - Math.pow(1.0 - (double) assemblyOnlyKmers / assemblyKmers, 1.0 / k);
+        return -10.0 * Math.log10(error);
+    }
+
+    private void writeSpectra(){
+        Path out = Paths.get(outbase + ".spectra");
+        try(BufferedWriter output = Files.newBufferedWriter(out, StandardCharsets.US_ASCII)){
+            output.write("count");
+            for(int c = 0; c < COPIES; c++)
+                output.write("\t" + c);
+            output.write("\t" + COPIES + "+");
+            output.newLine();
+            for(int r = 0; r < spectra.length; r++){
+                long sum = 0;
+                for(long v : spectra[r])
+                    sum += v;
+                if(sum == 0)
+                    continue;
+                output.write(String.valueOf(r));
+                for(long v : spectra[r])
+                    output.write("\t" + v);
+                output.newLine();
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error writing k-mer spectra: " + out.toString(), ex);
+        }
+    }
+
+    private void writeSummary(){
+        Path out = Paths.get(outbase + ".summary");
+        try(BufferedWriter output = Files.newBufferedWriter(out, StandardCharsets.US_ASCII)){
+            output.write("kmer\t" + k); output.newLine();
+            output.write("shared\t" + shared()); output.newLine();
+            output.write("assembly_only\t" + assemblyOnly()); output.newLine();
+            output.write("read_only\t" + readOnly()); output.newLine();
+            output.write("completeness\t" + String.format("%.4f", completeness())); output.newLine();
+            output.write("qv\t" + String.format("%.2f", qv())); output.newLine();
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error writing k-mer comparison summary: " + out.toString(), ex);
+        }
+        log.log(Level.INFO, "Shared: " + shared() + " assembly only: " + assemblyOnly() + " read only: " + readOnly()
+                + " completeness: " + String.format("%.2f", completeness()) + " QV: " + String.format("%.2f", qv()));
+    }
+
+    /*
+     * Reads one sorted run of k-mer and count records
+     */
+    private static class RunCursor implements Comparable<RunCursor>, AutoCloseable{
+        private final DataInputStream in;
+        public long kmer;
+        public int count;
+
+        public RunCursor(Path run) throws IOException{
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        public boolean next() throws IOException{
+            try{
+                kmer = in.readLong();
+            }catch(EOFException ex){
+                return false;
+            }
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunCursor o) {
+            return Long.compare(kmer, o.kmer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /*
+     * Merges runs in groups into larger runs until no more than the fan in limit
+     * are left; the merged runs are deleted
+     */
+    private List<Path> reduceRuns(List<Path> runs) throws IOException{
+        for(int pass = 0; runs.size() > maxFanIn; pass++){
+            List<Path> merged = new ArrayList<>();
+            for(int i = 0; i < runs.size(); i += maxFanIn){
+                List<Path> group = runs.subList(i, Math.min(runs.size(), i + maxFanIn));
+                if(group.size() == 1){
+                    merged.add(group.get(0));
+                    continue;
+                }
+                Path run = group.get(0).resolveSibling(group.get(0).getFileName() + ".m" + pass);
+                try(MergedRuns in = new MergedRuns(group);
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))){
+                    while(in.next()){
+                        out.writeLong(in.kmer);
+                        out.writeInt((int) Math.min(Integer.MAX_VALUE, in.count));
+                    }
+                }
+                for(Path p : group)
+                    Files.delete(p);
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        return runs;
+    }
+
+    /*
+     * Merges the runs of one input's shard into one ascending stream, adding the
+     * counts of a k-mer found in more than one run
+     */
+    private static class MergedRuns implements AutoCloseable{
+        private final PriorityQueue<RunCursor> heap = new PriorityQueue<>();
+        private final List<RunCursor> cursors = new ArrayList<>();
+        public long kmer;
+        public long count;
+
+        public MergedRuns(List<Path> runs) throws IOException{
+            for(Path run : runs){
+                RunCursor c = new RunCursor(run);
+                cursors.add(c);
+                if(c.next())
+                    heap.add(c);
+            }
+        }
+
+        public boolean next() throws IOException{
+            if(heap.isEmpty())
+                return false;
+            RunCursor c = heap.poll();
+            kmer = c.kmer;
+            count = 0;
+            while(true){
+                count += c.count;
+                if(c.next())
+                    heap.add(c);
+                if(heap.isEmpty() || heap.peek().kmer != kmer)
+                    return true;
+                c = heap.poll();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for(RunCursor c : cursors)
+                c.close();
+        }
+    }
+
+    /*
+     * Merge joins the assembly and read k-mers of one shard
+     */
+    private class Join{
+        private List<Path> asmRuns;
+        private List<Path> readRuns;
+        public final long[][] spectra = new long[KmerCount.HISTO_MAX + 1][COPIES + 1];
+        public long assemblyKmers = 0;
+        public long assemblyOnlyKmers = 0;
+        public long solid = 0;
+        public long solidShared = 0;
+
+        public Join(List<Path> asmRuns, List<Path> readRuns){
+            this.asmRuns = asmRuns;
+            this.readRuns = readRuns;
+        }
+
+        public Join run() throws IOException{
+            asmRuns = reduceRuns(asmRuns);
+            readRuns = reduceRuns(readRuns);
+            try(MergedRuns asm = new MergedRuns(asmRuns); MergedRuns rds = new MergedRuns(readRuns)){
+                boolean hasAsm = asm.next();
+                boolean hasReads = rds.next();
+                while(hasAsm || hasReads){
+                    if(hasAsm && (!hasReads || asm.kmer < rds.kmer)){
+                        tally(asm.count, 0);
+                        hasAsm = asm.next();
+                    }else if(!hasAsm || rds.kmer < asm.kmer){
+                        tally(0, rds.count);
+                        hasReads = rds.next();
+                    }else{
+                        tally(asm.count, rds.count);
+                        hasAsm = asm.next();
+                        hasReads = rds.next();
+                    }
+                }
+            }
+            for(Path run : asmRuns)
+                Files.delete(run);
+            for(Path run : readRuns)
+                Files.delete(run);
+            return this;
+        }
+
+        private void tally(long copies, long count){
+            spectra[(int) Math.min(count, KmerCount.HISTO_MAX)][(int) Math.min(copies, COPIES)]++;
+            assemblyKmers += copies;
+            if(count == 0)
+                assemblyOnlyKmers += copies;
+            if(count >= minCount){
+                solid++;
+                if(copies > 0)
+                    solidShared++;
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import GetCmdOpt.ArrayModeCmdLineParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utils.KmerIntersection;
+import utils.KmerTable;
+import utils.Murmur3;
+import utils.SequenceBlockReader;
+
+/**
+ * Counts the canonical k-mers of a plain or gzipped fasta or fastq file. The
+ * file is read in blocks, a round of blocks at a time. In each round every
+ * block's k-mers are split by the top bits of their hash into one buffer per
+ * shard, and then every shard's buffers are added to that shard's table. A
+ * table is only ever written by one thread at a time, so no locks are taken.
+ *
+ * The count database (output base + .kdb) is big endian: a magic number, k,
+ * the shard count, the distinct and total k-mer counts, the number of k-mers in
+ * each shard, and then each shard's k-mers in ascending order as a long k-mer
+ * and an int count. The histogram (output base + .histo) is tab delimited count
+ * and number of k-mers; counts of HISTO_MAX and above share the last line.
+ * @author dbickhart
+ */
+public class KmerCount {
+    private static final Logger log = Logger.getLogger(KmerCount.class.getName());
+    public static final long MAGIC = 0x43464b4d45524442L; // "CFKMERDB"
+    public static final int DEFAULT_K = 21;
+    public static final int HISTO_MAX = 10000;
+    private static final int TABLE_SIZE = 1 << 16;
+    private final Path input;
+    private final String outbase;
+    private final int k;
+    private final int threads;
+    private final int shards;
+    private final int shardShift;
+    private final KmerTable[] tables;
+    private int blockSize = 1 << 21;
+    private long total = 0;
+    private Path spillDir = null;
+    private long memoryBudget = Long.MAX_VALUE;
+    // Expected k-mers of each new table
+    private int tableSize = TABLE_SIZE;
+    private final List<List<Path>> runs = new ArrayList<>();
+
+    public KmerCount(Path input, String outbase, int k, int threads){
+        if(k < 1 || k > KmerIntersection.MAX_K)
+            throw new IllegalArgumentException("K-mer length must be between 1 and " + KmerIntersection.MAX_K + ", not " + k);
+        this.input = input;
+        this.outbase = outbase;
+        this.k = k;
+        this.threads = (threads < 1)? 1 : threads;
+        // Enough shards that the add phase stays balanced across threads
+        this.shards = Integer.highestOneBit(this.threads) << 4;
+        this.shardShift = 64 - Integer.numberOfTrailingZeros(shards);
+        this.tables = new KmerTable[shards];
+        for(int i = 0; i < shards; i++){
+            this.tables[i] = new KmerTable(TABLE_SIZE);
+            this.runs.add(new ArrayList<>());
+        }
+    }
+
+    public KmerCount(ArrayModeCmdLineParser cmd){
+        this(Paths.get(cmd.GetValue("input")), cmd.GetValue("output"),
+                (cmd.HasOpt("kmer"))? Integer.parseInt(cmd.GetValue("kmer")) : DEFAULT_K,
+                (cmd.HasOpt("threads"))? Integer.parseInt(cmd.GetValue("threads")) : 1);
+    }
+
+    /**
+     * @param blockSize the number of bases read into each block
+     */
+    public void setBlockSize(int blockSize){
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Makes count write each shard's k-mers to sorted run files in a directory,
+     * and start new tables, whenever the tables take more than a memory budget.
+     * The tables then only hold the k-mers counted since the last run. New tables
+     * start small next to the budget, so the budget is checked against the heap
+     * the tables really take.
+     */
+    void setSpill(Path dir, long memoryBudget){
+        this.spillDir = dir;
+        this.memoryBudget = memoryBudget;
+        // New tables take half of the budget at the most: up to 32 bytes for each expected k-mer
+        this.tableSize = (int) Math.max(16, Math.min(TABLE_SIZE, memoryBudget / shards / 64));
+        for(int i = 0; i < shards; i++)
+            this.tables[i] = new KmerTable(tableSize);
+    }
+
+    /**
+     * Drops the count tables once count has written every k-mer to runs, so that
+     * they do not hold the heap while another input is counted
+     */
+    void release(){
+        if(spillDir == null)
+            throw new IllegalStateException("Only spilled k-mer counts can be released!");
+        Arrays.fill(tables, null);
+    }
+
+    /**
+     * @return the sorted run files of a shard, in the order they were written
+     */
+    List<Path> getRuns(int shard){
+        return runs.get(shard);
+    }
+
+    int getShards(){
+        return shards;
+    }
+
+    public void run(){
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            if(!count(executor))
+                return;
+            log.log(Level.INFO, "Counted " + total + " " + k + "-mers with " + distinct() + " distinct in " + input.toString());
+            writeDatabase(executor);
+        }finally{
+            executor.shutdown();
+            try {
+                executor.awaitTermination(12, TimeUnit.HOURS);
+            } catch (InterruptedException ex) {
+                log.log(Level.SEVERE, "Error terminating k-mer counting thread pool!", ex);
+            }
+        }
+    }
+
+    private int shard(long kmer){
+        return (int) (Murmur3.fmix64(kmer) >>> shardShift);
+    }
+
+    /*
+     * The next round of blocks is read while the current one is counted
+     */
+    boolean count(ExecutorService executor){
+        ExecutorService rounds = Executors.newSingleThreadExecutor();
+        Future<?> pending = null;
+        try(SequenceBlockReader reader = new SequenceBlockReader(input, k, blockSize)){
+            while(true){
+                List<byte[]> blocks = new ArrayList<>(threads);
+                byte[] block;
+                while(blocks.size() < threads && (block = reader.next()) != null)
+                    blocks.add(block);
+                if(pending != null)
+                    pending.get();
+                if(blocks.isEmpty())
+                    break;
+                pending = rounds.submit(() -> {countRound(executor, blocks); return null;});
+            }
+            if(spillDir != null && distinct() > 0)
+                spill(executor);
+            return true;
+        }catch(IOException | InterruptedException | ExecutionException ex){
+            log.log(Level.SEVERE, "Error counting k-mers in file: " + input.toString(), ex);
+            return false;
+        }finally{
+            rounds.shutdownNow();
+        }
+    }
+
+    private void countRound(ExecutorService executor, List<byte[]> blocks) throws InterruptedException, ExecutionException{
+        List<Callable<long[][]>> splits = new ArrayList<>(blocks.size());
+        List<int[]> sizes = new ArrayList<>(blocks.size());
+        for(byte[] block : blocks){
+            int[] size = new int[shards];
+            sizes.add(size);
+            splits.add(() -> split(block, size));
+        }
+        List<long[][]> buffers = new ArrayList<>(blocks.size());
+        for(Future<long[][]> f : executor.invokeAll(splits))
+            buffers.add(f.get());
+
+        List<Callable<Long>> adds = new ArrayList<>(shards);
+        for(int i = 0; i < shards; i++){
+            final int s = i;
+            adds.add(() -> {
+                long added = 0;
+                for(int b = 0; b < buffers.size(); b++){
+                    long[] kmers = buffers.get(b)[s];
+                    int size = sizes.get(b)[s];
+                    for(int j = 0; j < size; j++)
+                        tables[s].increment(kmers[j]);
+                    added += size;
+                }
+                return added;
+            });
+        }
+        for(Future<Long> f : executor.invokeAll(adds))
+            total += f.get();
+
+        if(spillDir != null && heapBytes() >= memoryBudget)
+            spill(executor);
+    }
+
+    private void spill(ExecutorService executor) throws InterruptedException, ExecutionException{
+        List<Callable<Path>> writes = new ArrayList<>(shards);
+        for(int i = 0; i < shards; i++){
+            final int s = i;
+            final Path run = spillDir.resolve(input.getFileName() + "." + s + "." + runs.get(s).size() + ".run");
+            writes.add(() -> {
+                try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))){
+                    for(long kmer : sortedKeys(tables[s])){
+                        out.writeLong(kmer);
+                        out.writeInt(tables[s].get(kmer));
+                    }
+                }
+                // A new table, since an emptied one would keep the capacity it grew to
+                tables[s] = new KmerTable(tableSize);
+                return run;
+            });
+        }
+        List<Future<Path>> written = executor.invokeAll(writes);
+        for(int s = 0; s < shards; s++)
+            runs.get(s).add(written.get(s).get());
+        log.log(Level.INFO, "Wrote sorted k-mer run " + runs.get(0).size() + " of " + input.toString());
+    }
+
+    private long[][] split(byte[] block, int[] size){
+        long[][] kmers = new long[shards][];
+        int initial = 16 + (int) (block.length * 1.1 / shards);
+        for(int s = 0; s < shards; s++)
+            kmers[s] = new long[initial];
+        KmerIntersection.forEachKmer(block, 0, block.length, k, (kmer) -> {
+            int s = shard(kmer);
+            if(size[s] == kmers[s].length)
+                kmers[s] = Arrays.copyOf(kmers[s], kmers[s].length * 2);
+            kmers[s][size[s]++] = kmer;
+        });
+        return kmers;
+    }
+
+    private long heapBytes(){
+        long bytes = 0;
+        for(KmerTable t : tables)
+            bytes += t.heapBytes();
+        return bytes;
+    }
+
+    public long distinct(){
+        long distinct = 0;
+        for(KmerTable t : tables)
+            distinct += t.size();
+        return distinct;
+    }
+
+    public long total(){
+        return total;
+    }
+
+    /**
+     * @return the count of a k-mer, or 0 if it was not seen
+     */
+    public int get(long kmer){
+        long canonical = KmerIntersection.canonical(kmer, k);
+        return tables[shard(canonical)].get(canonical);
+    }
+
+    private static long[] sortedKeys(KmerTable table){
+        long[] keys = new long[table.size()];
+        int[] next = new int[1];
+        table.forEach((kmer, count) -> keys[next[0]++] = kmer);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /*
+     * Shards are sorted a few ahead of the one being written, so that only a few
+     * sorted copies are held at once
+     */
+    private void writeDatabase(ExecutorService executor){
+        long[] histogram = new long[HISTO_MAX + 1];
+        Path db = Paths.get(outbase + ".kdb");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(db), 1 << 16))){
+            out.writeLong(MAGIC);
+            out.writeInt(k);
+            out.writeInt(shards);
+            out.writeLong(distinct());
+            out.writeLong(total);
+            for(KmerTable t : tables)
+                out.writeLong(t.size());
+
+            List<Future<long[]>> sorted = new ArrayList<>(shards);
+            for(int s = 0; s < Math.min(threads, shards); s++){
+                KmerTable t = tables[s];
+                sorted.add(executor.submit(() -> sortedKeys(t)));
+            }
+            for(int s = 0; s < shards; s++){
+                long[] keys = sorted.get(s).get();
+                sorted.set(s, null);
+                if(s + threads < shards){
+                    KmerTable t = tables[s + threads];
+                    sorted.add(executor.submit(() -> sortedKeys(t)));
+                }
+                for(long kmer : keys){
+                    int count = tables[s].get(kmer);
+                    out.writeLong(kmer);
+                    out.writeInt(count);
+                    histogram[Math.min(count, HISTO_MAX)]++;
+                }
+            }
+        }catch(IOException | InterruptedException | ExecutionException ex){
+            log.log(Level.SEVERE, "Error writing k-mer count database: " + db.toString(), ex);
+            return;
+        }
+
+        Path histo = Paths.get(outbase + ".histo");
+        try(BufferedWriter output = Files.newBufferedWriter(histo, StandardCharsets.US_ASCII)){
+            for(int c = 1; c <= HISTO_MAX; c++){
+                if(histogram[c] == 0)
+                    continue;
+                output.write(c + "\t" + histogram[c]);
+                output.newLine();
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error writing k-mer histogram: " + histo.toString(), ex);
+        }
+    }
+
+    /**
+     * Reads a count database back into one table
+     */
+    public static KmerTable readDatabase(Path db) throws IOException{
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(db), 1 << 16))){
+            if(in.readLong() != MAGIC)
+                throw new IOException("Not a k-mer count database: " + db.toString());
+            in.readInt();
+            int shards = in.readInt();
+            long distinct = in.readLong();
+            in.readLong();
+            for(int s = 0; s < shards; s++)
+                in.readLong();
+            KmerTable table = new KmerTable(distinct);
+            for(long i = 0; i < distinct; i++){
+                long kmer = in.readLong();
+                table.add(kmer, in.readInt());
+            }
+            return table;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import utils.FastqRecordReader;
+
+/**
+ * Pairs two fastq files that are already in mate order (as they come off the
+ * sequencer), in one sequential read of each file with no temp files. Reads
+ * that cannot be paired straight away are held in a lookahead window until
+ * their mate turns up, so mates that are only locally out of order are still
+ * paired. A read is held for at most a window of records from its own file,
+ * and is then evicted and only its name is kept. A read whose mate was evicted
+ * means a lost pair, so run then returns false and another engine has to be
+ * used, as it does when more than eight windows of names have been evicted.
+ * The names of reads left without a mate at the end are written to output
+ * base + .orphans.
+ * @author dbickhart
+ */
+public class MergeJoinPair {
+    private static final Logger log = Logger.getLogger(MergeJoinPair.class.getName());
+    private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    // Number of reads from the start of each file used to guess if the files are in mate order
+    private static final int SAMPLE = 10000;
+    // Number of records a read is held for while its mate is looked for
+    private static final int WINDOW = 100000;
+    private final Path forwardFile;
+    private final Path reverseFile;
+    private final String outbase;
+    private final int windowReads;
+    private long pairs = 0;
+    // Names of evicted reads whose mates have not turned up, and of reads that repeat a held name
+    private final Set<String> evictedForward = new LinkedHashSet<>();
+    private final Set<String> evictedReverse = new LinkedHashSet<>();
+    private final List<String> duplicates = new ArrayList<>();
+
+    public MergeJoinPair(Path forwardFile, Path reverseFile, String outbase){
+        this(forwardFile, reverseFile, outbase, WINDOW);
+    }
+
+    public MergeJoinPair(Path forwardFile, Path reverseFile, String outbase, int windowReads){
+        this.forwardFile = forwardFile;
+        this.reverseFile = reverseFile;
+        this.outbase = outbase;
+        this.windowReads = (windowReads < 1)? 1 : windowReads;
+    }
+
+    /**
+     * Compares the read names at the start of both files. The files are taken to be
+     * in mate order if most of the shared names appear in the same order in both
+     * @return true if a merge join is likely to work
+     */
+    public static boolean isMateOrdered(Path forwardFile, Path reverseFile){
+        List<String> first = new ArrayList<>(SAMPLE);
+        Map<String, Integer> second = new HashMap<>();
+        try(FastqRecordReader r1 = new FastqRecordReader(forwardFile);
+                FastqRecordReader r2 = new FastqRecordReader(reverseFile)){
+            while(first.size() < SAMPLE && r1.next())
+                first.add(r1.getName());
+            while(second.size() < SAMPLE && r2.next())
+                second.putIfAbsent(r2.getName(), second.size());
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error sampling fastq files for mate order!", ex);
+            return false;
+        }
+        int shared = 0, ordered = 0, last = -1;
+        for(String n : first){
+            Integer j = second.get(n);
+            if(j == null)
+                continue;
+            shared++;
+            if(j > last){
+                ordered++;
+                last = j;
+            }
+        }
+        log.log(Level.INFO, "Mate order sample: " + shared + " shared read names, " + ordered + " in order");
+        return shared > Math.min(first.size(), second.size()) / 2 && ordered >= shared * 0.9;
+    }
+
+    /**
+     * @return false if a pair could not be written because the files are not in mate order;
+     * the output files are then incomplete
+     */
+    public boolean run(){
+        Window forward = new Window();
+        Window reverse = new Window();
+        try(FastqRecordReader r1 = new FastqRecordReader(forwardFile);
+                FastqRecordReader r2 = new FastqRecordReader(reverseFile);
+                OutputStream o1 = new BufferedOutputStream(Files.newOutputStream(Paths.get(outbase + ".1.fastq")), 1 << 16);
+                OutputStream o2 = new BufferedOutputStream(Files.newOutputStream(Paths.get(outbase + ".2.fastq")), 1 << 16)){
+            boolean more1 = true, more2 = true;
+            long count1 = 0, count2 = 0;
+            long maxEvicted = 8L * windowReads;
+            while(more1 || more2){
+                if(more1 && (more1 = r1.next()))
+                    count1++;
+                if(more2 && (more2 = r2.next()))
+                    count2++;
+
+                // Usual case: both reads are the next pair, even if older reads are still waiting
+                if(more1 && more2 && sameName(r1, r2)){
+                    r1.writeTo(o1, NL);
+                    r2.writeTo(o2, NL);
+                    pairs++;
+                }else{
+                    if(more1 && !match(r1, count1, forward, reverse, evictedReverse, true, o1, o2))
+                        return false;
+                    if(more2 && !match(r2, count2, reverse, forward, evictedForward, false, o1, o2))
+                        return false;
+                }
+
+                // Reads are held for one window of records from their own file
+                while(!forward.isEmpty() && count1 - forward.oldest().sequence >= windowReads)
+                    evict(forward, evictedForward);
+                while(!reverse.isEmpty() && count2 - reverse.oldest().sequence >= windowReads)
+                    evict(reverse, evictedReverse);
+                if(evictedForward.size() + evictedReverse.size() + duplicates.size() > maxEvicted){
+                    log.log(Level.WARNING, "Merge join evicted more than " + maxEvicted + " unpaired reads from a window of "
+                            + windowReads + " reads; the files are not in mate order");
+                    return false;
+                }
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error merging fastq files: " + forwardFile.toString() + " and " + reverseFile.toString(), ex);
+            return false;
+        }
+
+        long orphans = evictedForward.size() + evictedReverse.size() + duplicates.size() + forward.reads.size() + reverse.reads.size();
+        Path orphanFile = Paths.get(outbase + ".orphans");
+        try(BufferedWriter output = Files.newBufferedWriter(orphanFile, StandardCharsets.UTF_8)){
+            for(Collection<String> names : Arrays.<Collection<String>>asList(evictedForward, evictedReverse, duplicates, forward.reads.keySet(), reverse.reads.keySet())){
+                for(String n : names){
+                    output.write(n);
+                    output.newLine();
+                }
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error writing orphan read names to: " + orphanFile.toString(), ex);
+        }
+        log.log(Level.INFO, "Wrote " + pairs + " read pairs and filtered " + orphans + " one-sided reads");
+        return true;
+    }
+
+    /*
+     * Writes the read with its mate if the mate is held, or holds the read. Returns false if
+     * the mate was evicted, since the pair is then lost
+     */
+    private boolean match(FastqRecordReader reader, long count, Window own, Window other, Set<String> mateEvicted, boolean isForward, OutputStream o1, OutputStream o2) throws IOException{
+        String name = reader.getName();
+        Read mate = other.remove(name);
+        if(mate != null){
+            if(isForward){
+                reader.writeTo(o1, NL);
+                o2.write(mate.record);
+            }else{
+                o1.write(mate.record);
+                reader.writeTo(o2, NL);
+            }
+            pairs++;
+            return true;
+        }
+        if(mateEvicted.contains(name)){
+            log.log(Level.WARNING, "Merge join window of " + windowReads + " reads evicted the mate of read " + name + "; the files are not in mate order");
+            return false;
+        }
+        if(own.reads.containsKey(name)){
+            // A repeated name cannot be told apart from the held read, so it is not paired
+            duplicates.add(name);
+            return true;
+        }
+        own.add(new Read(reader, count));
+        return true;
+    }
+
+    private void evict(Window window, Set<String> evicted){
+        Read r = window.remove(window.oldest().name);
+        evicted.add(r.name);
+    }
+
+    private static boolean sameName(FastqRecordReader r1, FastqRecordReader r2){
+        int len = r1.getNameEnd() - r1.getNameStart();
+        if(len != r2.getNameEnd() - r2.getNameStart())
+            return false;
+        byte[] a = r1.getRecord(), b = r2.getRecord();
+        for(int i = 0; i < len; i++){
+            if(a[r1.getNameStart() + i] != b[r2.getNameStart() + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static class Read{
+        public final String name;
+        public final byte[] record;
+        public final long sequence;
+
+        public Read(FastqRecordReader reader, long sequence){
+            this.name = reader.getName();
+            this.record = new byte[reader.getWrittenLength(NL)];
+            reader.writeTo(this.record, 0, NL);
+            this.sequence = sequence;
+        }
+    }
+
+    // Held reads by name, oldest first
+    private static class Window{
+        public final LinkedHashMap<String, Read> reads = new LinkedHashMap<>();
+
+        public void add(Read r){
+            reads.put(r.name, r);
+        }
+
+        public boolean isEmpty(){
+            return reads.isEmpty();
+        }
+
+        public Read oldest(){
+            return reads.values().iterator().next();
+        }
+
+        public Read remove(String name){
+            return reads.remove(name);
+        }
+    }
+}
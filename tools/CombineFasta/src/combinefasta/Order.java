@@ -13,41 +13,60 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import misassemblyLDCorrection.FastaIndexEntry;
 
 /**
  *
  * @author dbickhart
  */
 public class Order {
-    private final List<Path> fastaPaths = new ArrayList<>();
-    private final List<String> fastaOrients = new ArrayList<>();
+    private final List<FastaSegment> segments = new ArrayList<>();
     private final Path Output;
     private static final Logger log = Logger.getLogger(Order.class.getName());
-    private final List<String> seq = new ArrayList<>();
+    // Sequence is streamed through one block of this size, regardless of chromosome length
+    private static final int BLOCK_SIZE = 1 << 22;
+    private static final int LINE_WIDTH = 60;
+    // Same minimum gap length that the pipeline gives to seqtk cutN
+    public static final int MIN_GAP = 3;
     private boolean hasPadding = false;
     private int paddingBP;
     private String fastaName;
+    private final Map<Path, Map<String, FastaIndexEntry>> indices = new HashMap<>();
+    private boolean writeFai = false;
+    private Path gapBed = null;
+    private Path agp = null;
+    private boolean listRead = false;
+    private boolean complete = false;
+    private static final Pattern REGION = Pattern.compile("^(.+):([0-9,]+)(?:-([0-9,]+))?$");
     
     public Order(String fastaStr, String output, int padding){
         try(BufferedReader reader = Files.newBufferedReader(Paths.get(fastaStr))){
             String line = null;
             while((line = reader.readLine()) != null){
                 String[] cols = line.split("\t");
-                if(cols.length != 2)
-                    throw new IOException("Expected two columns in input file!");
+                if(cols.length != 2 && cols.length != 3)
+                    throw new IOException("Expected two or three columns in input file!");
                 
-                if(!cols[1].equals("+") && !cols[1].equals("-"))
-                    throw new IOException("Second column must be either a + or - for orientation!");
+                String orient = cols[cols.length - 1];
+                if(!orient.equals("+") && !orient.equals("-"))
+                    throw new IOException("Last column must be either a + or - for orientation!");
                 
                 if(!Paths.get(cols[0]).toFile().exists())
                     throw new IOException("Error accessing file: " + cols[0] + " does it exist?");
                 
-                this.fastaPaths.add(Paths.get(cols[0]));
-                this.fastaOrients.add(cols[1]);
+                if(cols.length == 3)
+                    this.segments.add(getRegionSegment(Paths.get(cols[0]), cols[1], orient.equals("-")));
+                else
+                    this.segments.add(new FastaSegment(Paths.get(cols[0]), orient.equals("-")));
             }
+            this.listRead = true;
         }catch(IOException ex){
             log.log(Level.SEVERE, "Error reading input fasta order file!", ex);
         }
@@ -66,47 +85,122 @@ public class Order {
         this.fastaName = fastaName;
     }
     
-    public void GenerateFasta(){
-        for(int x = 0; x < fastaPaths.size(); x++){
-            FastaReader reader = new FastaReader(fastaPaths.get(x));
-            reader.LoadEntry();
-            switch(fastaOrients.get(x)){
-                case "+":
-                    this.seq.addAll(reader.getSeq());
-                    break;
-                case "-":
-                    this.seq.addAll(reader.getRevComp());
-                    break;
-            }
-            if(this.hasPadding && x + 1 < fastaPaths.size()){
-                // Add padding bases in between fasta entries
-                this.AddPaddingBP();
+    // Region input lines are: source fasta, contig[:start-end] (1-based, inclusive) and orientation
+    private FastaSegment getRegionSegment(Path source, String region, boolean reverse) throws IOException{
+        Map<String, FastaIndexEntry> index = this.indices.get(source);
+        if(index == null){
+            Path fai = Paths.get(source.toString() + ".fai");
+            if(!fai.toFile().canRead())
+                throw new IOException("Could not find the .fai index for file: " + source.toString() + "! Did you forget to samtools faidx it?");
+            index = new HashMap<>();
+            try(BufferedReader input = Files.newBufferedReader(fai, Charset.defaultCharset())){
+                String line;
+                while((line = input.readLine()) != null){
+                    FastaIndexEntry e = new FastaIndexEntry(line);
+                    index.put(e.getName(), e);
+                }
             }
-            log.log(Level.INFO, "Loaded fasta entry: " + reader.getHead());
+            this.indices.put(source, index);
         }
         
-        String nl = System.lineSeparator();
-        
-        try(BufferedWriter output = Files.newBufferedWriter(Output, Charset.defaultCharset())){
-            output.write(">" + this.fastaName + nl);
+        // Whole contig names take precedence, as contig names may contain colons
+        FastaIndexEntry entry = index.get(region);
+        long start = 0, end;
+        if(entry != null){
+            end = entry.length;
+        }else{
+            Matcher m = REGION.matcher(region);
+            if(!m.matches() || (entry = index.get(m.group(1))) == null)
+                throw new IOException("Could not find region: " + region + " in the index for: " + source.toString());
+            start = Long.parseLong(m.group(2).replace(",", "")) - 1;
+            end = (m.group(3) == null)? entry.length : Long.parseLong(m.group(3).replace(",", ""));
+            if(end > entry.length){
+                log.log(Level.WARNING, "Region end for " + region + " exceeded contig length, set value to: " + entry.length);
+                end = entry.length;
+            }
+            if(start < 0 || start >= end)
+                throw new IOException("Invalid region coordinates: " + region);
+        }
+        return new FastaSegment(source, entry, start, end, reverse);
+    }
+    
+    /**
+     * Estimates the work in this job from the bytes that will be streamed
+     * @return the summed byte size of all input segments
+     */
+    public long getInputSize(){
+        long size = 0;
+        for(FastaSegment s : segments)
+            size += s.getByteSize();
+        return size;
+    }
+    
+    /**
+     * Requests files that describe the output, written in the same pass as the fasta
+     * @param fai write a samtools index next to the output fasta
+     * @param gapBed bed file of N runs of MIN_GAP or more bases (as seqtk cutN -g), or null
+     * @param agp AGP 2.0 description of the components and padding gaps, or null
+     */
+    public void setSideOutputs(boolean fai, String gapBed, String agp){
+        this.writeFai = fai;
+        this.gapBed = (gapBed == null)? null : Paths.get(gapBed);
+        this.agp = (agp == null)? null : Paths.get(agp);
+    }
+    
+    public Path getOutput(){
+        return this.Output;
+    }
+    
+    /**
+     * @return true if the whole input list was read and GenerateFasta wrote every output without an error
+     */
+    public boolean isComplete(){
+        return this.listRead && this.complete;
+    }
+    
+    public void GenerateFasta(){
+        byte[] block = new byte[BLOCK_SIZE];
+        try(FastaChannelWriter output = new FastaChannelWriter(Output, LINE_WIDTH);
+                BufferedWriter gaps = (gapBed == null)? null : Files.newBufferedWriter(gapBed, Charset.defaultCharset());
+                BufferedWriter agpOut = (agp == null)? null : Files.newBufferedWriter(agp, Charset.defaultCharset())){
+            if(this.writeFai)
+                output.trackIndex();
+            if(gaps != null)
+                output.trackGaps(gaps, MIN_GAP);
             
-            StringBuilder builder = new StringBuilder(this.seq.size() + (this.seq.size() / 60) + 1);
-            for(int x = 0; x < this.seq.size(); x++){
-                builder.append(this.seq.get(x));
-                if(x != 0 && (x + 1) % 60 == 0){
-                    builder.append(nl);
+            output.startRecord(this.fastaName);
+            String object = this.fastaName.trim().split("\\s+")[0];
+            int part = 1;
+            for(int x = 0; x < segments.size(); x++){
+                FastaSegment segment = segments.get(x);
+                long begin = output.getRecordBases();
+                long len = segment.write(output, block);
+                if(agpOut != null && len > 0){
+                    agpOut.write(object + "\t" + (begin + 1) + "\t" + (begin + len) + "\t" + part++ + "\tW\t"
+                            + segment.getComponentName() + "\t" + (segment.getComponentStart() + 1) + "\t"
+                            + (segment.getComponentStart() + len) + "\t" + ((segment.isReverse())? "-" : "+"));
+                    agpOut.newLine();
+                }
+                if(this.hasPadding && x + 1 < segments.size()){
+                    // Add padding bases in between fasta entries
+                    begin = output.getRecordBases();
+                    output.writeN(this.paddingBP);
+                    if(agpOut != null){
+                        agpOut.write(object + "\t" + (begin + 1) + "\t" + (begin + this.paddingBP) + "\t" + part++
+                                + "\tN\t" + this.paddingBP + "\tscaffold\tyes\tmap");
+                        agpOut.newLine();
+                    }
                 }
+                log.log(Level.INFO, "Loaded fasta entry: " + segment.getName());
             }
-            output.write(builder.toString() + nl);
+            output.endRecord();
+            output.flush();
+            if(this.writeFai)
+                output.writeIndex(Paths.get(Output.toString() + ".fai"));
+            this.complete = true;
         }catch(IOException ex){
             log.log(Level.SEVERE, "Error writing to output!", ex);
         }
     }
     
-    private void AddPaddingBP(){
-        for(int x = 0; x < this.paddingBP; x++){
-            this.seq.add("N");
-        }
-    }
-    
 }
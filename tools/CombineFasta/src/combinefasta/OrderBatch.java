@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import GetCmdOpt.ArrayModeCmdLineParser;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import misassemblyLDCorrection.FastaIndexEntry;
+
+/**
+ * Runs several order jobs in one JVM. The manifest is tab delimited:
+ * order list, output fasta, padding bases and an optional fasta name (default:
+ * the output file name without its extension). Jobs are started largest first
+ * on a fixed size pool, and the outputs can be joined afterwards into one
+ * multi-entry fasta in manifest order.
+ * @author dbickhart
+ */
+public class OrderBatch {
+    private static final Logger log = Logger.getLogger(OrderBatch.class.getName());
+    private final List<OrderJob> jobs = new ArrayList<>();
+    private final int threads;
+    private Path combined = null;
+    private boolean sideOutputs = false;
+    private boolean manifestRead = false;
+
+    public OrderBatch(String manifest, int threads){
+        this.threads = (threads < 1)? 1 : threads;
+        try(BufferedReader reader = Files.newBufferedReader(Paths.get(manifest))){
+            String line = null;
+            while((line = reader.readLine()) != null){
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] cols = line.split("\t");
+                if(cols.length < 3)
+                    throw new IOException("Expected at least three columns in manifest line: " + line);
+
+                int padding = Integer.parseInt(cols[2]);
+                String name = (cols.length > 3)? cols[3] : cols[1].replaceFirst("\\.[^.]*$", "");
+                this.jobs.add(new OrderJob(this.jobs.size(), Paths.get(cols[1]),
+                        new Order(cols[0], cols[1], padding, name)));
+            }
+            this.manifestRead = true;
+        }catch(IOException | NumberFormatException ex){
+            log.log(Level.SEVERE, "Error reading order batch manifest file!", ex);
+        }
+    }
+
+    public OrderBatch(String manifest, int threads, String combined){
+        this(manifest, threads);
+        if(combined != null)
+            this.combined = Paths.get(combined);
+    }
+
+    public OrderBatch(ArrayModeCmdLineParser cmd){
+        this(cmd.GetValue("manifest"),
+                (cmd.HasOpt("threads"))? Integer.parseInt(cmd.GetValue("threads")) : 1,
+                (cmd.HasOpt("combined"))? cmd.GetValue("combined") : null);
+        if(cmd.HasOpt("index"))
+            this.setSideOutputs();
+    }
+
+    /**
+     * Writes a .fai, a gap bed (base name + .gaps.bed) and an AGP (base name + .agp)
+     * next to every output, and next to the combined fasta if one is requested
+     */
+    public void setSideOutputs(){
+        this.sideOutputs = true;
+        for(OrderJob j : this.jobs){
+            String base = getBaseName(j.output);
+            j.order.setSideOutputs(true, base + ".gaps.bed", base + ".agp");
+        }
+    }
+    
+    private static String getBaseName(Path p){
+        return p.toString().replaceFirst("\\.[^./]*$", "");
+    }
+
+    /**
+     * Runs every job, then writes the combined fasta if one was requested
+     * @return false if the manifest could not be read or any job failed; the combined fasta is then not written
+     */
+    public boolean run(){
+        if(!this.manifestRead)
+            return false;
+        // Biggest chromosomes go first so that the pool does not finish on a long straggler
+        List<OrderJob> bySize = new ArrayList<>(this.jobs);
+        bySize.sort(Comparator.comparingLong((OrderJob j) -> j.size).reversed());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, bySize.size())));
+        List<Future<?>> futures = new ArrayList<>(bySize.size());
+        for(OrderJob j : bySize)
+            futures.add(executor.submit(j));
+        executor.shutdown();
+        boolean finished = false;
+        try {
+            finished = executor.awaitTermination(12, TimeUnit.HOURS);
+        } catch (InterruptedException ex) {
+            log.log(Level.SEVERE, "Error terminating order batch thread pool!", ex);
+        }
+
+        int failed = 0;
+        for(int x = 0; x < bySize.size(); x++){
+            OrderJob j = bySize.get(x);
+            try{
+                if(!finished || !futures.get(x).isDone())
+                    throw new IOException("Job did not finish");
+                futures.get(x).get();
+                if(!j.order.isComplete())
+                    throw new IOException("Job did not write all of its output");
+            }catch(IOException | InterruptedException | ExecutionException ex){
+                log.log(Level.SEVERE, "Order job " + (j.rank + 1) + " failed: " + j.output.toString(), ex);
+                failed++;
+            }
+        }
+        if(failed > 0){
+            log.log(Level.SEVERE, failed + " of " + this.jobs.size() + " order jobs failed!"
+                    + ((this.combined != null)? " Not writing combined fasta: " + this.combined.toString() : ""));
+            return false;
+        }
+        log.log(Level.INFO, "Completed " + this.jobs.size() + " order jobs");
+
+        if(this.combined != null)
+            return this.writeCombined();
+        return true;
+    }
+
+    private boolean writeCombined(){
+        String base = getBaseName(this.combined);
+        try(FileChannel output = FileChannel.open(this.combined, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                BufferedWriter fai = (sideOutputs)? Files.newBufferedWriter(Paths.get(this.combined.toString() + ".fai"), Charset.defaultCharset()) : null;
+                FileChannel gaps = (sideOutputs)? openTruncated(Paths.get(base + ".gaps.bed")) : null;
+                FileChannel agp = (sideOutputs)? openTruncated(Paths.get(base + ".agp")) : null){
+            long offset = 0;
+            for(OrderJob j : this.jobs){
+                long size = transfer(j.output, output);
+                if(sideOutputs){
+                    // Index entries only need their offsets shifted by the bytes already written
+                    try(BufferedReader input = Files.newBufferedReader(Paths.get(j.output.toString() + ".fai"), Charset.defaultCharset())){
+                        String line;
+                        while((line = input.readLine()) != null){
+                            FastaIndexEntry e = new FastaIndexEntry(line);
+                            fai.write(new FastaIndexEntry(e.name, e.length, e.startByte + offset, e.lineBpLen, e.lineLen).toString());
+                            fai.newLine();
+                        }
+                    }
+                    String jbase = getBaseName(j.output);
+                    transfer(Paths.get(jbase + ".gaps.bed"), gaps);
+                    transfer(Paths.get(jbase + ".agp"), agp);
+                }
+                offset += size;
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error writing combined fasta file: " + this.combined.toString(), ex);
+            return false;
+        }
+        log.log(Level.INFO, "Wrote combined fasta: " + this.combined.toString());
+        return true;
+    }
+    
+    private static FileChannel openTruncated(Path p) throws IOException{
+        return FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    private static long transfer(Path input, FileChannel output) throws IOException{
+        try(FileChannel in = FileChannel.open(input, StandardOpenOption.READ)){
+            long pos = 0, size = in.size();
+            while(pos < size)
+                pos += in.transferTo(pos, size - pos, output);
+            return size;
+        }
+    }
+
+    private class OrderJob implements Runnable{
+        public final int rank;
+        public final Path output;
+        public final Order order;
+        public final long size;
+
+        public OrderJob(int rank, Path output, Order order){
+            this.rank = rank;
+            this.output = output;
+            this.order = order;
+            this.size = order.getInputSize();
+        }
+
+        @Override
+        public void run() {
+            log.log(Level.INFO, "Starting order job " + (rank + 1) + ": " + output.toString());
+            this.order.GenerateFasta();
+        }
+    }
+}
@@ -24,9 +24,9 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import utils.BloomFilter;
 import utils.FastqFileQuickSort;
 import utils.FastqFileQuickSort.QuickSortOutput;
+import utils.ReadNameSet;
 
 /**
  *
@@ -38,6 +38,9 @@ public class Pair {
     private final Path reverseFile;
     private final String outbase;
     private final String NL = System.lineSeparator();
+    private int threads = 1;
+    // null means check a sample of the reads for mate order
+    private Boolean mateOrdered = null;
     
     public Pair(String forward, String reverse, String outbase){
         this.forwardFile = Paths.get(forward);
@@ -51,7 +54,44 @@ public class Pair {
         this.outbase = outbase;
     }
     
+    public Pair(String forward, String reverse, String outbase, int threads){
+        this(forward, reverse, outbase);
+        this.threads = (threads < 1)? 1 : threads;
+    }
+    
+    /**
+     * @param mateOrdered true to always try a merge join first, false to never try it,
+     * or null to decide from a sample of the reads
+     */
+    public void setMateOrdered(Boolean mateOrdered){
+        this.mateOrdered = mateOrdered;
+    }
+    
+    /**
+     * Pairs the reads in one streaming pass if the files are in mate order, 
+     * otherwise by hash partitioning the read names, with no sort
+     */
     public void run(){
+        boolean ordered = (mateOrdered != null)? mateOrdered : MergeJoinPair.isMateOrdered(this.forwardFile, this.reverseFile);
+        if(ordered){
+            log.log(Level.INFO, "Pairing reads in mate order with a streaming merge join");
+            if(new MergeJoinPair(this.forwardFile, this.reverseFile, this.outbase).run()){
+                this.checkOutput();
+                return;
+            }
+            log.log(Level.WARNING, "Falling back to hash partitioned read pairing");
+        }
+        if(!new HashPartitionPair(this.forwardFile, this.reverseFile, this.outbase, this.threads).run()){
+            log.log(Level.SEVERE, "Could not pair the reads; no paired output was written");
+            return;
+        }
+        this.checkOutput();
+    }
+    
+    /**
+     * Pairs the reads by external sorting of both files; output is in read name order
+     */
+    public void runSorted(){
         // Print the entries to temp files on single lines for easier sorting
         /*File tempFor = new File(this.outbase + ".f.temp");
         File tempRev = new File(this.outbase + ".r.temp");
@@ -80,6 +120,7 @@ public class Pair {
         
         Map<String, QuickSortOutput> postSortOutput = preSortFiles.entrySet().parallelStream().map((f) -> {
                 FastqFileQuickSort t = new FastqFileQuickSort("\t", new int[]{0}, f.getValue().toString());
+                t.setRadixSort(true);
                 try{
                     t.splitChunks(f.getValue(), f.getKey());
                     t.mergeChunks();
@@ -89,26 +130,22 @@ public class Pair {
                 return t.getOutput();
             }).collect(Collectors.toMap(p -> p.id, Function.identity()));
         
+        // A file that failed to sort has no read name set
+        if(postSortOutput.values().stream().anyMatch(o -> o.names == null)){
+            log.log(Level.SEVERE, "Could not sort both fastq files; no paired output was written");
+            return;
+        }
         log.log(Level.INFO, "Completed sort routine");
         
         // Output reads to proper fastq format files
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-        
-        executor.execute(new FilterSortedTextFile(postSortOutput.get("for").output, 
-                this.outbase + ".1.fastq", 
-                postSortOutput.get("rev").bloom));
-        executor.execute(new FilterSortedTextFile(postSortOutput.get("rev").output, 
-                this.outbase + ".2.fastq", 
-                postSortOutput.get("for").bloom));
-        executor.shutdown();
-        try {
-            executor.awaitTermination(12, TimeUnit.HOURS);
-        } catch (InterruptedException ex) {
-            log.log(Level.SEVERE, "Error terminating fastq file output generation pool!", ex);
-        }
+        new FilterSortedTextFiles(postSortOutput.get("for"), postSortOutput.get("rev"), 
+                this.outbase + ".1.fastq", this.outbase + ".2.fastq").run();
         
         log.log(Level.INFO, "Completed fastq output routine");
-
+        this.checkOutput();
+    }
+    
+    private void checkOutput(){
         // Parity check read names from the files to ensure everything matches
         File first = new File(this.outbase + ".1.fastq");
         File second = new File(this.outbase + ".2.fastq");
@@ -121,48 +158,81 @@ public class Pair {
         
     }
     
-    protected class FilterSortedTextFile implements Runnable{
-        private final Path inputSortFile;
-        private final Path outputFastq;
-        private final BloomFilter<String> bloom;
-        
-        public FilterSortedTextFile(Path inputSortFile, String outbase, BloomFilter bloom){
-            this.inputSortFile = inputSortFile;
-            this.outputFastq = Paths.get(outbase);
-            this.bloom = bloom;
+    /**
+     * Writes the reads of both sorted temp files whose mates are present. The name
+     * sets give a quick membership test; the names of each written pair are then
+     * compared as well, so that a fingerprint collision cannot put an unmatched
+     * read into the output
+     */
+    protected class FilterSortedTextFiles implements Runnable{
+        private final QuickSortOutput forward;
+        private final QuickSortOutput reverse;
+        private final Path firstFastq;
+        private final Path secondFastq;
+        private long linesFiltered = 0;
+        
+        public FilterSortedTextFiles(QuickSortOutput forward, QuickSortOutput reverse, String firstFastq, String secondFastq){
+            this.forward = forward;
+            this.reverse = reverse;
+            this.firstFastq = Paths.get(firstFastq);
+            this.secondFastq = Paths.get(secondFastq);
         }
 
         @Override
         public void run() {
-            BufferedWriter output = null;
-            long linesFiltered = 0, linesWritten = 0;
-            try(BufferedReader input = Files.newBufferedReader(inputSortFile, Charset.defaultCharset())){
-                output = Files.newBufferedWriter(outputFastq, Charset.defaultCharset());
-                String line;
-                while((line = input.readLine()) != null){
-                    line = line.trim();
-                    String[] segs = line.split(" ");
-                    if(bloom.contains(segs[0])){
-                        String[] tsegs = line.split("\t");
-                        output.write(StrUtils.StrArray.Join(tsegs, NL));
-                        output.write(NL);
+            long linesWritten = 0;
+            try(BufferedReader input1 = Files.newBufferedReader(forward.output, Charset.defaultCharset());
+                    BufferedReader input2 = Files.newBufferedReader(reverse.output, Charset.defaultCharset());
+                    BufferedWriter output1 = Files.newBufferedWriter(firstFastq, Charset.defaultCharset());
+                    BufferedWriter output2 = Files.newBufferedWriter(secondFastq, Charset.defaultCharset())){
+                String[] line1 = nextCandidate(input1, reverse.names);
+                String[] line2 = nextCandidate(input2, forward.names);
+                while(line1 != null && line2 != null){
+                    int c = line1[0].compareTo(line2[0]);
+                    if(c == 0){
+                        output1.write(StrUtils.StrArray.Join(line1[1].split("\t"), NL));
+                        output1.write(NL);
+                        output2.write(StrUtils.StrArray.Join(line2[1].split("\t"), NL));
+                        output2.write(NL);
                         linesWritten++;
+                        line1 = nextCandidate(input1, reverse.names);
+                        line2 = nextCandidate(input2, forward.names);
+                    }else if(c < 0){
+                        // A fingerprint matched but the mate is not there
+                        linesFiltered++;
+                        line1 = nextCandidate(input1, reverse.names);
                     }else{
                         linesFiltered++;
+                        line2 = nextCandidate(input2, forward.names);
                     }
                 }
-            }catch(IOException ex){
-                log.log(Level.SEVERE, "Error reading from sorted temp file!", ex);
-            }finally{
-                try{
-                    output.close();
-                }catch(IOException ex){
-                    log.log(Level.SEVERE, "Error closing output file!", ex);
+                while(line1 != null){
+                    linesFiltered++;
+                    line1 = nextCandidate(input1, reverse.names);
                 }
+                while(line2 != null){
+                    linesFiltered++;
+                    line2 = nextCandidate(input2, forward.names);
+                }
+            }catch(IOException ex){
+                log.log(Level.SEVERE, "Error reading from sorted temp files!", ex);
+            }
+            log.log(Level.INFO, "Finished writing paired files. Wrote: " + linesWritten 
+                    + " pairs and filtered: " + linesFiltered + " one-sided reads");
+        }
+        
+        // Returns the read name and line of the next read whose name is in the mate set
+        private String[] nextCandidate(BufferedReader input, ReadNameSet mates) throws IOException{
+            String line;
+            while((line = input.readLine()) != null){
+                line = line.trim();
+                // The header is the first tab column, and the name its first word
+                String name = line.split("\t", 2)[0].split(" ")[0];
+                if(mates.contains(name))
+                    return new String[]{name, line};
+                linesFiltered++;
             }
-            log.log(Level.INFO, "Finished writing file: " 
-                    + inputSortFile.toString() + ". Wrote: " + linesWritten 
-                    + " lines and filtered: " + linesFiltered + " one-sided reads");
+            return null;
         }
     }
 
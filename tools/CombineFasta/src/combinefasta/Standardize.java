@@ -6,14 +6,29 @@
 package combinefasta;
 
 import GetCmdOpt.ArrayModeCmdLineParser;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
+import gziputils.ReaderReturn;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import misassemblyLDCorrection.FastaIndexEntry;
 
 /**
  *
@@ -21,43 +36,199 @@ import java.util.logging.Logger;
  */
 public class Standardize {
     private final Logger log = Logger.getLogger(Standardize.class.getName());
-    private BufferedWriter output;
-    private final String fasta;
-    private final boolean changeName;
-    private final String format;
+    private static final int LINE_WIDTH = 60;
+    // Each worker streams its records through one block of this size
+    private static final int BLOCK_SIZE = 1 << 22;
+    private final Path output;
+    private final Path fasta;
+    // Compiled once and applied to every header when a suffix is to be removed
+    private final Pattern format;
+    private final int lineWidth;
+    private final int threads;
     
     public Standardize(ArrayModeCmdLineParser cmd){
-        this.output = null;
-        try{
-            this.output = Files.newBufferedWriter(Paths.get(cmd.GetValue("output")), Charset.defaultCharset());
-        }catch(IOException ex){
-            log.log(Level.SEVERE, "Fatal error writing to output fasta file: " + cmd.GetValue("output") + "!", ex);
-        }
-        
-        this.fasta = cmd.GetValue("fasta");
-        if(cmd.HasOpt("format")){
-            this.format = cmd.GetValue("format");
-            this.changeName = true;
-        }else{
-            this.format = "";
-            this.changeName = false;
-        }
+        this(cmd.GetValue("fasta"), cmd.GetValue("output"), 
+                (cmd.HasOpt("format"))? cmd.GetValue("format") : null,
+                (cmd.HasOpt("linewidth"))? Integer.parseInt(cmd.GetValue("linewidth")) : LINE_WIDTH,
+                (cmd.HasOpt("threads"))? Integer.parseInt(cmd.GetValue("threads")) : 1);
+    }
+    
+    public Standardize(String fasta, String output, String format, int lineWidth){
+        this(fasta, output, format, lineWidth, 1);
+    }
+    
+    public Standardize(String fasta, String output, String format, int lineWidth, int threads){
+        this.fasta = Paths.get(fasta);
+        this.output = Paths.get(output);
+        this.format = (format == null)? null : Pattern.compile(format);
+        this.lineWidth = lineWidth;
+        this.threads = (threads < 1)? 1 : threads;
     }
     
     public void run(){
+        Path fai = Paths.get(fasta.toString() + ".fai");
+        if(threads > 1 && fai.toFile().canRead() && !ReaderReturn.isGZipped(fasta.toFile()))
+            runIndexed(fai);
+        else
+            runSerial();
+    }
+    
+    private void runSerial(){
         int counter = 0;
-        try{
-            BufferedFastaReaderWriter workhorse = new BufferedFastaReaderWriter(fasta, this.changeName);
-            int retVal = 0;
-            while((retVal = workhorse.readToNextChr(output, format)) != -1){
+        try(FastaChannelReader reader = new FastaChannelReader(fasta);
+                FastaChannelWriter writer = new FastaChannelWriter(output, lineWidth)){
+            String header;
+            while((header = reader.nextHeader()) != null){
+                String name = getName(header);
+                log.log(Level.INFO, "Standardizing chr: " + name);
+                writer.startRecord(name);
+                reader.copySequence(writer);
+                writer.endRecord();
                 counter++;
             }
-            workhorse.close();
-            output.close();
         }catch(IOException ex){
-            log.log(Level.SEVERE, "Error reading input fasta file!", ex);
+            log.log(Level.SEVERE, "Error standardizing input fasta file: " + fasta.toString() + "!", ex);
         }
         
         log.log(Level.INFO, "Processed: " + counter + " Fasta entries.");
     }
+    
+    /*
+     * With every record length known from the index, the output offset of each
+     * record is fixed before any sequence is read. Records are then split among
+     * workers that each write their own records with positional writes.
+     */
+    private void runIndexed(Path fai){
+        List<Record> records = new ArrayList<>();
+        long total = 0;
+        try(BufferedReader input = Files.newBufferedReader(fai, Charset.defaultCharset());
+                FileChannel in = FileChannel.open(fasta, StandardOpenOption.READ)){
+            String line;
+            while((line = input.readLine()) != null){
+                FastaIndexEntry e = new FastaIndexEntry(line);
+                String name = getName(readHeader(in, e.startByte));
+                records.add(new Record(e, name, total));
+                total += FastaChannelWriter.recordSize(name, e.length, lineWidth);
+            }
+        }catch(IOException ex){
+            log.log(Level.SEVERE, "Error reading fasta index file: " + fai.toString() + "!", ex);
+            return;
+        }
+        
+        // Largest records first, each to the worker with the least sequence so far
+        records.sort(Comparator.comparingLong((Record r) -> r.entry.length).reversed());
+        List<StandardizeJob> jobs = new ArrayList<>();
+        for(int i = 0; i < Math.min(threads, records.size()); i++)
+            jobs.add(new StandardizeJob());
+        for(Record r : records)
+            jobs.stream().min(Comparator.comparingLong((StandardizeJob j) -> j.bases)).get().add(r);
+        
+        // A worker that fails leaves a hole in the file, so every worker has to be checked
+        boolean complete = false;
+        try(FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, jobs.size()));
+            List<Future<Void>> futures = new ArrayList<>(jobs.size());
+            for(StandardizeJob j : jobs){
+                j.output = out;
+                futures.add(executor.submit(j));
+            }
+            executor.shutdown();
+            boolean finished = false;
+            try {
+                finished = executor.awaitTermination(12, TimeUnit.HOURS);
+            } catch (InterruptedException ex) {
+                log.log(Level.SEVERE, "Error terminating standardize thread pool!", ex);
+            }
+            if(!finished){
+                executor.shutdownNow();
+                throw new IOException("Standardize workers did not finish!");
+            }
+            for(Future<Void> f : futures)
+                f.get();
+            if(out.size() != total)
+                throw new IOException("Output fasta size: " + out.size() + " did not match the expected size: " + total + "! Is the .fai up to date?");
+            complete = true;
+        }catch(IOException | InterruptedException | ExecutionException ex){
+            log.log(Level.SEVERE, "Error writing to output fasta file: " + output.toString() + "!", ex);
+        }
+        
+        if(!complete){
+            try{
+                Files.deleteIfExists(output);
+            }catch(IOException ex){
+                log.log(Level.SEVERE, "Could not delete incomplete output fasta file: " + output.toString() + "!", ex);
+            }
+            log.log(Level.SEVERE, "Removed incomplete output fasta file: " + output.toString());
+            return;
+        }
+        log.log(Level.INFO, "Processed: " + records.size() + " Fasta entries.");
+    }
+    
+    private String getName(String header){
+        return (format == null)? header.trim() : format.matcher(header).replaceAll("").trim();
+    }
+    
+    // The index only keeps the first word of a header, so the full line is read back from the fasta
+    private static String readHeader(FileChannel in, long seqStart) throws IOException{
+        int window = 1024;
+        while(true){
+            long from = Math.max(0, seqStart - window);
+            byte[] block = new byte[(int) (seqStart - from)];
+            int n = FastaSegment.readAt(in, block, block.length, from);
+            // Skip the header's line terminator
+            int end = n;
+            while(end > 0 && (block[end - 1] == '\n' || block[end - 1] == '\r'))
+                end--;
+            for(int i = end - 1; i >= 0; i--){
+                if(block[i] == '\n')
+                    break;
+                if(block[i] == '>' && ((i == 0)? from == 0 : block[i - 1] == '\n'))
+                    return new String(block, i + 1, end - i - 1, StandardCharsets.UTF_8);
+            }
+            if(from == 0)
+                throw new IOException("Could not find a fasta header before byte: " + seqStart + "! Is the .fai up to date?");
+            window *= 8;
+        }
+    }
+    
+    private class StandardizeJob implements Callable<Void>{
+        private final List<Record> records = new ArrayList<>();
+        public long bases = 0;
+        public FileChannel output;
+        
+        public void add(Record r){
+            this.records.add(r);
+            this.bases += r.entry.length;
+        }
+        
+        @Override
+        public Void call() throws IOException {
+            byte[] block = new byte[BLOCK_SIZE];
+            try(FastaChannelWriter writer = new FastaChannelWriter(output, lineWidth)){
+                for(Record r : records){
+                    log.log(Level.INFO, "Standardizing chr: " + r.name);
+                    writer.moveTo(r.offset);
+                    writer.startRecord(r.name);
+                    new FastaSegment(fasta, r.entry, 0, r.entry.length, false).write(writer, block);
+                    writer.endRecord();
+                    if(writer.getRecordBases() != r.entry.length)
+                        throw new IOException("Read " + writer.getRecordBases() + " bases for " + r.name + " but the index lists " + r.entry.length + "!");
+                }
+            }
+            return null;
+        }
+    }
+    
+    private static class Record{
+        public final FastaIndexEntry entry;
+        public final String name;
+        public final long offset;
+        
+        public Record(FastaIndexEntry entry, String name, long offset){
+            this.entry = entry;
+            this.name = name;
+            this.offset = offset;
+        }
+    }
 }
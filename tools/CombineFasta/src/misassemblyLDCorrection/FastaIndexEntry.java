@@ -39,4 +39,19 @@ public class FastaIndexEntry {
     public String getName(){
         return this.name;
     }
+    
+    @Override
+    public String toString(){
+        // Returns the samtools .fai line for this entry
+        return this.name + "\t" + this.length + "\t" + this.startByte + "\t" + this.lineBpLen + "\t" + this.lineLen;
+    }
+    
+    /**
+     * Converts a zero-based base position into a byte offset in the fasta file
+     * @param pos zero-based position within this entry
+     * @return absolute byte offset of that base
+     */
+    public long getByteOffset(long pos){
+        return this.startByte + (pos / this.lineBpLen) * this.lineLen + (pos % this.lineBpLen);
+    }
 }
@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import utils.ReverseComplement;
 
 /**
  *
@@ -19,7 +20,7 @@ import java.util.stream.IntStream;
 public class SubStringFastaCode {
     private static final Logger log = Logger.getLogger(SubStringFastaCode.class.getName());
     private static final char[] codes = {'A', 'T', 'G', 'C', 'N'};
-    private static final char[] revcodes = {'T', 'A', 'C', 'G', 'N'};
+    private static final byte[] bytecodes = {'A', 'T', 'G', 'C', 'N'};
     private final byte[] seqCode;
     private final String chr;
     private final int start;
@@ -61,9 +62,23 @@ public class SubStringFastaCode {
     }
     
     public List<Character> getRevSeq(){
-        List<Character> output = new ArrayList<>(this.seqCode.length);
-        for(int x = seqCode.length -1; x >= 0; x--)
-            output.add(revcodes[this.seqCode[x]]);
+        byte[] rev = this.getRevBytes();
+        List<Character> output = new ArrayList<>(rev.length);
+        for(byte b : rev)
+            output.add((char) b);
+        return output;
+    }
+    
+    public byte[] getFwdBytes(){
+        byte[] output = new byte[this.seqCode.length];
+        for(int x = 0; x < seqCode.length; x++)
+            output[x] = bytecodes[this.seqCode[x]];
+        return output;
+    }
+    
+    public byte[] getRevBytes(){
+        byte[] output = this.getFwdBytes();
+        ReverseComplement.reverseComplement(output);
         return output;
     }
 }
@@ -7,21 +7,16 @@ package readsplit;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import utils.KmerIntersection;
 import utils.KmerIntersection.ByteString;
+import utils.KmerTable;
 
 /**
  *
@@ -30,108 +25,155 @@ import utils.KmerIntersection.ByteString;
 public class kmerIndex {
     // This class subsamples het-kmers from a file and stores information on their pairing
     private static final Logger log = Logger.getLogger(kmerIndex.class.getName());
+    public static final long SEED = 1337L;
     private final String FileName;
-    private final Integer subSample;
-    private final Integer merSize;
-    // Mapping numerical relationship of byte string
-    private Map<ByteString, Integer> kmerToIndex = new ConcurrentHashMap<>();
-    // Mapping pair order to byte string
-    private Map<ByteString, KOrder> kmerToOrder = new ConcurrentHashMap<>();
-    // Mapping byte string to numerical relationship and pairing
-    private Map<Integer, KPair<ByteString>> indexToKmer = new ConcurrentHashMap<>();
-    
+    private final int subSample;
+    private final int merSize;
+    private final long seed;
+    // Canonical packed kmer to its pair index shifted left one, with the pair order in the low bit
+    private final KmerTable kmerToIndex = new KmerTable();
+    // Pair index (from 1) to its packed kmers
+    private long[] pairA = new long[1];
+    private long[] pairB = new long[1];
+    private int sampled = 0;
+
     public kmerIndex(int subSample, String fileName, int mer){
+        this(subSample, fileName, mer, SEED);
+    }
+
+    public kmerIndex(int subSample, String fileName, int mer, long seed){
+        if(mer < 1 || mer > KmerIntersection.MAX_K)
+            throw new IllegalArgumentException("Kmer size must be between 1 and " + KmerIntersection.MAX_K + ", not " + mer);
         this.subSample = subSample;
         this.FileName = fileName;
         this.merSize = mer;
+        this.seed = seed;
     }
-    
+
     public void buildIndex(){
         final Path fpath = Paths.get(FileName);
-        Long flength = 0L;
-        // Count file lines
-        try(BufferedReader input = Files.newBufferedReader(fpath, Charset.defaultCharset())){
-            String l;
-            while((l = input.readLine()) != null)
-                flength++;
-        }catch(IOException ex){
-            log.log(Level.SEVERE, "Error estimating file length!", ex);
-        }
-        
-        log.log(Level.FINE, "Estimated kmer pair file length: " + flength);
-        
-        double ratio = this.subSample / flength;
-        Random rand = new Random();
-        // Now read the file and build the index variables
+        // Reservoir sample of pair lines, so the file is only read once
+        long[] a = new long[subSample];
+        long[] b = new long[subSample];
+        SplittableRandom rand = new SplittableRandom(seed);
+        long lines = 0;
+        int filled = 0;
         try(BufferedReader input = Files.newBufferedReader(fpath, Charset.defaultCharset())){
             String l;
-            int sampled = 0;
             while((l = input.readLine()) != null){
-                // if the kmer pair is in our subset
-                if(rand.nextDouble() < ratio){
-                    sampled++;
-                    // Create the kmer bytestrings
-                    String[] s = l.trim().split("\t");
-                    List<ByteString> seqs = Arrays.stream(s)
-                            .map(d -> new ByteString(this.merSize))
-                            .collect(Collectors.toList());
-
-                    for(int x = 0; x < s.length; x++)
-                        seqs.get(x).calculateHash(s[x].getBytes(), 0);
-                    
-                    // Fill the table
-                    this.indexToKmer.put(sampled, new KPair(seqs.get(0), seqs.get(1)));
-                    this.kmerToIndex.put(seqs.get(0), sampled);
-                    this.kmerToOrder.put(seqs.get(0), KOrder.A);
-                    this.kmerToIndex.put(seqs.get(1), sampled);
-                    this.kmerToOrder.put(seqs.get(0), KOrder.B);
+                int slot = (filled < subSample)? filled : (int) Math.min(subSample, rand.nextLong(lines + 1));
+                lines++;
+                if(slot == subSample)
+                    continue;
+                String[] s = l.trim().split("\t");
+                if(s.length < 2 || s[0].length() != merSize || s[1].length() != merSize){
+                    log.log(Level.WARNING, "Skipping kmer pair line: " + l);
+                    continue;
                 }
+                // Both kmers are encoded before the slot is written, so a bad line leaves the sampled pair whole
+                long kmerA, kmerB;
+                try{
+                    kmerA = KmerIntersection.encode(s[0].getBytes(), 0, merSize);
+                    kmerB = KmerIntersection.encode(s[1].getBytes(), 0, merSize);
+                }catch(IllegalArgumentException ex){
+                    log.log(Level.WARNING, "Skipping kmer pair line: " + l);
+                    continue;
+                }
+                a[slot] = kmerA;
+                b[slot] = kmerB;
+                if(slot == filled)
+                    filled++;
             }
-            log.log(Level.INFO, "Subsampled " + sampled + " Kmer pairs for analysis");
         }catch(IOException ex){
             log.log(Level.SEVERE, "Error building kmer index from file!", ex);
         }
+        log.log(Level.FINE, "Read kmer pair file length: " + lines);
+
+        // Fill the table
+        this.pairA = new long[filled + 1];
+        this.pairB = new long[filled + 1];
+        for(int x = 0; x < filled; x++){
+            int index = x + 1;
+            this.pairA[index] = KmerIntersection.canonical(a[x], merSize);
+            this.pairB[index] = KmerIntersection.canonical(b[x], merSize);
+            this.kmerToIndex.put(this.pairA[index], (index << 1) | KOrder.A.ordinal());
+            this.kmerToIndex.put(this.pairB[index], (index << 1) | KOrder.B.ordinal());
+        }
+        this.sampled = filled;
+        log.log(Level.INFO, "Subsampled " + sampled + " Kmer pairs for analysis");
     }
-    
+
     // Getters and Setters
-    public Integer getKIndex(ByteString b){
-        if(this.kmerToIndex.containsKey(b))
-            return this.kmerToIndex.get(b);
-        else
-            return -1;  // Value to show that the kmer isn't in the list
+    public int getSampled(){
+        return this.sampled;
+    }
+
+    /**
+     * @return the canonical packed kmer
+     * @throws IllegalArgumentException if the kmer has a base other than ACGT
+     */
+    public long encode(ByteString b){
+        return KmerIntersection.canonical(KmerIntersection.encode(b.bytes, 0, merSize), merSize);
     }
-    
-    public KPair getKPair(Integer i){
-        if(this.indexToKmer.containsKey(i))
-            return this.indexToKmer.get(i);
+
+    /**
+     * @param kmer a packed kmer in either orientation
+     * @return the index of its pair, or -1 if the kmer isn't in the list
+     */
+    public int getKIndex(long kmer){
+        int value = this.kmerToIndex.get(KmerIntersection.canonical(kmer, merSize));
+        return (value == 0)? -1 : value >>> 1;
+    }
+
+    /**
+     * @return the index of the kmer's pair, or -1 if it isn't in the list or has a base other than ACGT
+     */
+    public int getKIndex(ByteString b){
+        try{
+            return getKIndex(encode(b));
+        }catch(IllegalArgumentException ex){
+            return -1;
+        }
+    }
+
+    public KPair getKPair(int i){
+        if(i >= 1 && i <= sampled)
+            return new KPair(pairA[i], pairB[i]);
         else
             return null;
     }
-    
+
+    public KOrder getKOrder(long kmer){
+        int value = this.kmerToIndex.get(KmerIntersection.canonical(kmer, merSize));
+        return (value == 0)? null : KOrder.values()[value & 1];
+    }
+
     public KOrder getKOrder(ByteString b){
-        if(this.kmerToOrder.containsKey(b))
-            return this.kmerToOrder.get(b);
-        else
+        try{
+            return getKOrder(encode(b));
+        }catch(IllegalArgumentException ex){
             return null;
+        }
     }
-    
+
     // Utility classes
     public enum KOrder { A, B}
-    
-    public class KPair <T extends ByteString>{
-        public final ByteString A;
-        public final ByteString B;
-        public final Map<ByteString, KOrder> kindex = new HashMap<>();
-        
-        public KPair(ByteString a, ByteString b){
+
+    public static class KPair{
+        public final long A;
+        public final long B;
+
+        public KPair(long a, long b){
             this.A = a;
             this.B = b;
-            kindex.put(a, KOrder.A);
-            kindex.put(b, KOrder.B);
         }
-        
-        public KOrder getKOrder(ByteString a){
-            return this.kindex.get(a);
+
+        public KOrder getKOrder(long a){
+            if(a == this.A)
+                return KOrder.A;
+            else if(a == this.B)
+                return KOrder.B;
+            return null;
         }
     }
 }
@@ -7,12 +7,10 @@ package readsplit;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 import readsplit.kmerIndex.KOrder;
 import utils.KmerIntersection.ByteString;
+import utils.Murmur3;
 
 /**
  *
@@ -20,36 +18,158 @@ import utils.KmerIntersection.ByteString;
  */
 public class sparseMatrix {
     private static final Logger log = Logger.getLogger(sparseMatrix.class.getName());
+    // Rows are spread over shards by hash, and each shard is locked on its own
+    private static final int SHARDS = 256;
+    private static final int SHARD_SHIFT = 64 - Integer.numberOfTrailingZeros(SHARDS);
     private final kmerIndex index;
     private final int[] dimensions;
-    private final Map<Integer, Map<Integer, KCounter>> matrix;
-    
+    private final Shard[] shards = new Shard[SHARDS];
+
     public sparseMatrix(int eCount, kmerIndex index){
         this.dimensions = new int[]{eCount, eCount};
-        this.matrix = new ConcurrentHashMap<>();
         this.index = index;
-        
-        // Preloading matrix with hashkeys
-        for(int x = 1; x <= eCount; x++)
-            this.matrix.put(x, new ConcurrentHashMap<>());
+        for(int x = 0; x < SHARDS; x++)
+            this.shards[x] = new Shard();
     }
-    
-    public synchronized void updateCounter(List<ByteString> kmers, kmerIndex index){
-        List<Integer> indices = kmers.stream().map(s -> index.getKIndex(s)).collect(Collectors.toList());
-        List<KOrder> orders = kmers.stream().map(s -> index.getKOrder(s)).collect(Collectors.toList());
-        
-        for(int x = 0; x < indices.size(); x++){
-            for(int y = 0; y < indices.size(); y++){
-                if(x == y)
-                    continue; // avoid self counting
-                if(! this.matrix.get(indices.get(x)).containsKey(indices.get(y)))
-                    this.matrix.get(indices.get(x)).put(indices.get(y), new KCounter());
-                this.matrix.get(indices.get(x)).get(indices.get(y)).updateCount(orders.get(x), orders.get(y));
+
+    private Shard shard(int row){
+        return this.shards[(int) (Murmur3.fmix64(row) >>> SHARD_SHIFT)];
+    }
+
+    /**
+     * Counts every ordered pair of indexed kmers in a read. Kmers with bases other
+     * than ACGT cannot be in the index and are skipped.
+     */
+    public void updateCounter(List<ByteString> kmers, kmerIndex index){
+        long[] packed = new long[kmers.size()];
+        int found = 0;
+        for(ByteString b : kmers){
+            try{
+                packed[found] = index.encode(b);
+                found++;
+            }catch(IllegalArgumentException ex){
+                // An N or other ambiguous base
             }
         }
+        updateCounter(Arrays.copyOf(packed, found), index);
     }
-    
-    public class KCounter{
+
+    /**
+     * Counts every ordered pair of indexed kmers in a read. Kmers that are not in
+     * the index are skipped.
+     * @param kmers packed kmers, in either orientation
+     */
+    public void updateCounter(long[] kmers, kmerIndex index){
+        int[] indices = new int[kmers.length];
+        int[] orders = new int[kmers.length];
+        int found = 0;
+        for(long k : kmers){
+            int i = index.getKIndex(k);
+            if(i == -1)
+                continue;
+            indices[found] = i;
+            orders[found] = index.getKOrder(k).ordinal();
+            found++;
+        }
+
+        for(int x = 0; x < found; x++){
+            // One lock for the whole row
+            Shard s = shard(indices[x]);
+            synchronized(s){
+                for(int y = 0; y < found; y++){
+                    if(x == y)
+                        continue; // avoid self counting
+                    s.increment(((long) indices[x] << 32) | indices[y], (orders[x] << 1) | orders[y]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the counter of a cell, or null if the pair was never seen
+     */
+    public KCounter getCounter(int i, int j){
+        Shard s = shard(i);
+        synchronized(s){
+            int slot = s.find(((long) i << 32) | j);
+            if(slot == -1)
+                return null;
+            KCounter c = new KCounter();
+            System.arraycopy(s.counts, slot << 2, c.counts, 0, 4);
+            return c;
+        }
+    }
+
+    /**
+     * @return the number of cells with a count
+     */
+    public long size(){
+        long size = 0;
+        for(Shard s : shards){
+            synchronized(s){
+                size += s.size;
+            }
+        }
+        return size;
+    }
+
+    /*
+     * Open addressing table of cells keyed by (i << 32) | j, with their four
+     * counters packed side by side. Indices start at 1, so a key of 0 is empty.
+     */
+    private static class Shard{
+        private long[] keys = new long[64];
+        private int[] counts = new int[64 * 4];
+        private int size = 0;
+
+        private int slot(long key, long[] table){
+            return (int) Murmur3.fmix64(key) & (table.length - 1);
+        }
+
+        public int find(long key){
+            int s = slot(key, keys);
+            while(keys[s] != 0){
+                if(keys[s] == key)
+                    return s;
+                s = (s + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        public void increment(long key, int cell){
+            int s = slot(key, keys);
+            while(keys[s] != key){
+                if(keys[s] == 0){
+                    keys[s] = key;
+                    if(++size > keys.length * 3 / 4){
+                        grow();
+                        s = find(key);
+                    }
+                    break;
+                }
+                s = (s + 1) & (keys.length - 1);
+            }
+            counts[(s << 2) + cell]++;
+        }
+
+        private void grow(){
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length << 1];
+            counts = new int[keys.length * 4];
+            for(int x = 0; x < oldKeys.length; x++){
+                if(oldKeys[x] == 0)
+                    continue;
+                int s = slot(oldKeys[x], keys);
+                while(keys[s] != 0)
+                    s = (s + 1) & (keys.length - 1);
+                keys[s] = oldKeys[x];
+                System.arraycopy(oldCounts, x << 2, counts, s << 2, 4);
+            }
+        }
+    }
+
+    public static class KCounter{
         // Using simplest data structure for speed and memory concerns
         // Index structure: AA = 0, AB = 1, BA = 2, BB = 3
         public final int[] counts = new int[]{0,0,0,0};
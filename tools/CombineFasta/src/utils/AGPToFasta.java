@@ -230,7 +230,7 @@ public class AGPToFasta {
                         log.log(Level.FINE, "[AGPSUB] Pulling subsection of chr " + s + "\t" + b.aChr + ":" + b.aStart + "-" + b.aEnd 
                                 + " at current byte count: " + seq.size());
                         if(b.orient == ORIENT.REV){
-                            temp = getRevComp(temp);
+                            ReverseComplement.reverseComplement(temp);
                         }
                         
                         for(byte t : temp)
@@ -263,35 +263,6 @@ public class AGPToFasta {
         }
     }
     
-    private byte[] getRevComp(byte[] array){
-        byte[] comp = new byte[array.length];
-        int current = 0;
-        for(int x = array.length -1; x >= 0; x--){
-            char c = (char)(array[x] & 0xff);
-            switch(c){
-                case 'T':
-                case 't':
-                    comp[current++] = 'A';
-                    break;
-                case 'A':
-                case 'a':
-                    comp[current++] = 'T';
-                    break;
-                case 'G':
-                case 'g':
-                    comp[current++] = 'C';
-                    break;
-                case 'C':
-                case 'c':
-                    comp[current++] = 'G';
-                    break;
-                default:
-                    comp[current++] = 'N';
-            }
-        }
-        return comp;
-    }
-    
     public enum ORIENT{
         FWD, REV
     }
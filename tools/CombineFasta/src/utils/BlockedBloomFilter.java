@@ -0,0 +1,381 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A blocked Bloom filter with the same methods as BloomFilter. The filter is cut
+ * into 512 bit blocks of eight longs, the size of a cache line, and all k bits of
+ * a key are set inside the one block picked by its hash. A lookup then costs one
+ * cache miss instead of up to k.
+ *
+ * Keys crowd unevenly into blocks, so a blocked filter needs a few more bits per
+ * element than a standard filter for the same false positive rate. The sizing
+ * constructor accounts for this by choosing k and the bits per element from the
+ * false positive rate of the blocked layout, rather than the standard formula.
+ *
+ * Bits are held in an AtomicLongArray and set by compare and set, so add and
+ * contains are lock free from any number of threads.
+ *
+ * @param <E> Object type that is to be inserted into the filter, e.g. String or Integer.
+ * @author dbickhart
+ */
+public class BlockedBloomFilter<E> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int BLOCK_WORDS = 8;
+    static final int BLOCK_BITS = BLOCK_WORDS * 64;
+
+    private final AtomicLongArray words;
+    private final long blocks;
+    private final double bitsPerElement;
+    private final long expectedNumberOfFilterElements;
+    private final LongAdder numberOfAddedElements = new LongAdder();
+    private final int k;
+
+    static final Charset charset = Charset.forName("UTF-8");
+    static final long SEED = BloomFilter.SEED;
+
+    /**
+     * Constructs an empty filter of c*n bits, rounded up to whole blocks.
+     *
+     * @param c is the number of bits used per element.
+     * @param n is the expected number of elements the filter will contain.
+     * @param k is the number of bits set per element, at most 512.
+     */
+    public BlockedBloomFilter(double c, long n, int k){
+        if(k < 1 || k > BLOCK_BITS)
+            throw new IllegalArgumentException("A blocked bloom filter sets between 1 and " + BLOCK_BITS + " bits per element, not " + k);
+        this.expectedNumberOfFilterElements = n;
+        this.k = k;
+        this.bitsPerElement = c;
+        this.blocks = Math.max(1, (long) Math.ceil(c * n / BLOCK_BITS));
+        if(blocks * BLOCK_WORDS > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Blocked bloom filter of " + blocks + " blocks is too large!");
+        this.words = new AtomicLongArray((int) (blocks * BLOCK_WORDS));
+    }
+
+    /**
+     * Constructs an empty filter with the standard optimal k for its size.
+     *
+     * @param bitSetSize defines how many bits should be used in total for the filter.
+     * @param expectedNumberOElements defines the maximum number of elements the filter is expected to contain.
+     */
+    public BlockedBloomFilter(long bitSetSize, long expectedNumberOElements){
+        this(bitSetSize / (double) expectedNumberOElements,
+             expectedNumberOElements,
+             (int) Math.min(BLOCK_BITS, Math.max(1, Math.round((bitSetSize / (double) expectedNumberOElements) * Math.log(2.0)))));
+    }
+
+    /**
+     * Constructs an empty filter sized so that its false positive probability, once it holds
+     * the expected number of elements, is at most the one given.
+     *
+     * @param falsePositiveProbability is the desired false positive probability.
+     * @param expectedNumberOfElements is the expected number of elements in the filter.
+     */
+    public BlockedBloomFilter(double falsePositiveProbability, long expectedNumberOfElements){
+        this(size(falsePositiveProbability), expectedNumberOfElements);
+    }
+
+    private BlockedBloomFilter(double[] ck, long n){
+        this(ck[0], n, (int) ck[1]);
+    }
+
+    /*
+    * The smallest bits per element, and the k giving it, that reach a false positive rate.
+    * The standard k for the rate is the most worth trying; blocks fill up long before more would help
+    */
+    private static double[] size(double p){
+        int maxK = (int) Math.min(BLOCK_BITS, Math.ceil(-Math.log(p) / Math.log(2)));
+        double[] best = {Double.MAX_VALUE, maxK};
+        for(int k = 1; k <= maxK; k++){
+            double lo = 1, hi = 4096;
+            if(falsePositiveProbability(hi, k) > p)
+                continue;
+            for(int i = 0; i < 40; i++){
+                double mid = (lo + hi) / 2;
+                if(falsePositiveProbability(mid, k) > p)
+                    lo = mid;
+                else
+                    hi = mid;
+            }
+            if(hi < best[0]){
+                best[0] = hi;
+                best[1] = k;
+            }
+        }
+        if(best[0] == Double.MAX_VALUE)
+            best[0] = 4096;
+        return best;
+    }
+
+    /*
+    * False positive rate of a full blocked filter with c bits per element. The number of keys in a block
+    * is Poisson with mean 512 / c, and a block holding j keys answers like a standard filter of 512 bits
+    */
+    static double falsePositiveProbability(double c, int k){
+        double lambda = BLOCK_BITS / c;
+        double term = Math.exp(-lambda);
+        double fpp = 0;
+        int max = (int) (lambda + 12 * Math.sqrt(lambda) + 12);
+        for(int j = 0; j <= max; j++){
+            if(j > 0)
+                term *= lambda / j;
+            fpp += term * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) k * j), k);
+        }
+        return fpp;
+    }
+
+    /**
+     * Calculates the expected probability of false positives once the filter holds
+     * the expected number of elements.
+     *
+     * @return expected probability of false positives.
+     */
+    public double expectedFalsePositiveProbability(){
+        return getFalsePositiveProbability(expectedNumberOfFilterElements);
+    }
+
+    /**
+     * Calculate the probability of a false positive given the specified
+     * number of inserted elements.
+     *
+     * @param numberOfElements number of inserted elements.
+     * @return probability of a false positive.
+     */
+    public double getFalsePositiveProbability(double numberOfElements){
+        if(numberOfElements <= 0)
+            return 0;
+        return falsePositiveProbability(size() / numberOfElements, k);
+    }
+
+    /**
+     * Get the current probability of a false positive, from the number of elements added.
+     *
+     * @return probability of false positives.
+     */
+    public double getFalsePositiveProbability(){
+        return getFalsePositiveProbability(numberOfAddedElements.sum());
+    }
+
+    /**
+     * @return the number of bits set per element.
+     */
+    public int getK(){
+        return k;
+    }
+
+    /**
+     * Sets all bits to false in the filter.
+     */
+    public void clear(){
+        for(int i = 0; i < words.length(); i++)
+            words.set(i, 0L);
+        numberOfAddedElements.reset();
+    }
+
+    /**
+     * Adds an object to the filter. The output from the object's
+     * toString() method is used as input to the hash function.
+     *
+     * @param element is an element to register in the filter.
+     */
+    public void add(E element){
+        add(element.toString().getBytes(charset));
+    }
+
+    /**
+     * Adds an array of bytes to the filter.
+     *
+     * @param bytes array of bytes to add to the filter.
+     */
+    public void add(byte[] bytes){
+        add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Adds a range of bytes to the filter. Safe to call from many threads at once.
+     *
+     * @param bytes array holding the data.
+     * @param off start of the data.
+     * @param len length of the data.
+     */
+    public void add(byte[] bytes, int off, int len){
+        long[] h = new long[2];
+        Murmur3.hash128(bytes, off, len, SEED, h);
+        int base = block(h);
+        // Gather the bits word by word, so each word of the block takes at most one compare and set
+        long[] masks = new long[BLOCK_WORDS];
+        long x = h[1];
+        for(int i = 0; i < k; i++){
+            int bit = (int) (x >>> 55);
+            masks[bit >>> 6] |= 1L << bit;
+            x = next(x);
+        }
+        for(int w = 0; w < BLOCK_WORDS; w++){
+            long mask = masks[w];
+            if(mask == 0)
+                continue;
+            long old;
+            do{
+                old = words.get(base + w);
+                if((old & mask) == mask)
+                    break;
+            }while(!words.compareAndSet(base + w, old, old | mask));
+        }
+        numberOfAddedElements.increment();
+    }
+
+    /**
+     * Adds all elements from a Collection to the filter.
+     * @param c Collection of elements.
+     */
+    public void addAll(Collection<? extends E> c){
+        for(E element : c)
+            add(element);
+    }
+
+    /**
+     * Returns true if the element could have been inserted into the filter.
+     *
+     * @param element element to check.
+     * @return true if the element could have been inserted into the filter.
+     */
+    public boolean contains(E element){
+        return contains(element.toString().getBytes(charset));
+    }
+
+    /**
+     * Returns true if the array of bytes could have been inserted into the filter.
+     *
+     * @param bytes array of bytes to check.
+     * @return true if the array could have been inserted into the filter.
+     */
+    public boolean contains(byte[] bytes){
+        return contains(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns true if the range of bytes could have been inserted into the filter.
+     *
+     * @param bytes array holding the data.
+     * @param off start of the data.
+     * @param len length of the data.
+     * @return true if the data could have been inserted into the filter.
+     */
+    public boolean contains(byte[] bytes, int off, int len){
+        long[] h = new long[2];
+        Murmur3.hash128(bytes, off, len, SEED, h);
+        int base = block(h);
+        long x = h[1];
+        for(int i = 0; i < k; i++){
+            int bit = (int) (x >>> 55);
+            if((words.get(base + (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+            x = next(x);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if all the elements of a Collection could have been inserted
+     * into the filter.
+     * @param c elements to check.
+     * @return true if all the elements in c could have been inserted into the filter.
+     */
+    public boolean containsAll(Collection<? extends E> c){
+        for(E element : c)
+            if(!contains(element))
+                return false;
+        return true;
+    }
+
+    // The first word of a key's block, from the first half of its hash
+    private int block(long[] h){
+        return (int) (((h[0] >>> 1) % blocks) * BLOCK_WORDS);
+    }
+
+    /*
+    * Bits in the block are the top 9 bits of a linear congruential sequence started from the second half.
+    * Double hashing is no good here: when the top bits of the step are small, the probes land on the same few bits
+    */
+    private static long next(long x){
+        return x * 6364136223846793005L + 1442695040888963407L;
+    }
+
+    /**
+     * Returns the number of bits in the filter, a multiple of 512.
+     *
+     * @return the size of the filter in bits.
+     */
+    public long size(){
+        return blocks * BLOCK_BITS;
+    }
+
+    /**
+     * Returns the number of elements added to the filter after it
+     * was constructed or after clear() was called.
+     *
+     * @return number of elements added to the filter.
+     */
+    public long count(){
+        return numberOfAddedElements.sum();
+    }
+
+    /**
+     * @return the expected number of elements passed to the constructor.
+     */
+    public long getExpectedNumberOfElements(){
+        return expectedNumberOfFilterElements;
+    }
+
+    /**
+     * @return the expected number of bits per element when the filter is full.
+     */
+    public double getExpectedBitsPerElement(){
+        return this.bitsPerElement;
+    }
+
+    /**
+     * @return number of bits per element, from the elements inserted so far.
+     */
+    public double getBitsPerElement(){
+        return size() / (double) numberOfAddedElements.sum();
+    }
+
+    @Override
+    public boolean equals(Object obj){
+        if(obj == null || getClass() != obj.getClass())
+            return false;
+        final BlockedBloomFilter<?> other = (BlockedBloomFilter<?>) obj;
+        if(this.expectedNumberOfFilterElements != other.expectedNumberOfFilterElements
+                || this.k != other.k || this.blocks != other.blocks)
+            return false;
+        for(int i = 0; i < words.length(); i++){
+            if(words.get(i) != other.words.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        int hash = 7;
+        long bits = 1;
+        for(int i = 0; i < words.length(); i++)
+            bits = 31 * bits + words.get(i);
+        hash = 61 * hash + Long.hashCode(bits);
+        hash = 61 * hash + Long.hashCode(this.expectedNumberOfFilterElements);
+        hash = 61 * hash + Long.hashCode(this.blocks);
+        hash = 61 * hash + this.k;
+        return hash;
+    }
+}
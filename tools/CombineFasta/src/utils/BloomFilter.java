@@ -15,12 +15,19 @@
 
 package utils;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implementation of a Bloom-filter, as described here:
@@ -34,30 +41,51 @@ import java.util.Collection;
  * were proposed in comments in his blog:
  * http://blog.locut.us/2008/01/12/a-decent-stand-alone-java-bloom-filter-implementation/
  *
+ * ##CHANGED## The k bit positions come from one 128 bit Murmur3 hash by double
+ * hashing (h1 + i * h2), rather than from repeated MD5 digests behind a lock.
+ * Bits are held in an AtomicLongArray and addressed by longs, so a filter can
+ * hold more than 2^31 bits, and add and contains are lock free from any number
+ * of threads.
+ *
+ * ##ADDED## Filters can be written to disk once and opened again read only
+ * through FileChannel.map, so that reopening a large filter costs no reads and
+ * concurrent JVMs share one copy through the page cache. The file format is a
+ * 64 byte little endian header followed by the bit words:
+ * <pre>
+ *   bytes  0-7   magic "CFBLOOM1"
+ *   bytes  8-11  k, the number of hash functions
+ *   bytes 12-15  reserved, zero
+ *   bytes 16-23  m, the number of bits
+ *   bytes 24-31  n, the expected number of elements
+ *   bytes 32-39  the number of elements added
+ *   bytes 40-47  the Murmur3 hash seed
+ *   bytes 48-63  reserved, zero
+ *   bytes 64-    ceil(m / 64) little endian longs; bit i is bit (i % 64) of word (i / 64)
+ * </pre>
+ *
  * @param <E> Object type that is to be inserted into the Bloom filter, e.g. String or Integer.
  * @author Magnus Skjegstad <magnus@skjegstad.com>
+ * @author dbickhart
  */
 public class BloomFilter<E> implements Serializable {
-    private BitSet bitset;
-    private int bitSetSize;
+    private AtomicLongArray words;
+    // Read only words of a filter opened with open(), in place of words
+    private transient LongBuffer[] mapped = null;
+    private long bitSetSize;
     private double bitsPerElement;
-    private int expectedNumberOfFilterElements; // expected (maximum) number of elements to be added
-    private int numberOfAddedElements; // number of elements actually added to the Bloom filter
+    private long expectedNumberOfFilterElements; // expected (maximum) number of elements to be added
+    private final LongAdder numberOfAddedElements = new LongAdder(); // number of elements actually added to the Bloom filter
     private int k; // number of hash functions
 
     static final Charset charset = Charset.forName("UTF-8"); // encoding used for storing hash values as strings
 
-    static final String hashName = "MD5"; // MD5 gives good enough accuracy in most circumstances. Change to SHA1 if it's needed
-    static final MessageDigest digestFunction;
-    static { // The digest method is reused between instances
-        MessageDigest tmp;
-        try {
-            tmp = java.security.MessageDigest.getInstance(hashName);
-        } catch (NoSuchAlgorithmException e) {
-            tmp = null;
-        }
-        digestFunction = tmp;
-    }
+    static final long SEED = 0x5bd1e995L; // Murmur3 seed of new filters
+    private long seed = SEED;
+
+    static final byte[] MAGIC = "CFBLOOM1".getBytes(Charset.forName("US-ASCII"));
+    static final int HEADER_SIZE = 64;
+    // Words per mapped segment; FileChannel.map is limited to 2GB at a time
+    static final int SEGMENT_BITS = 27;
 
     /**
       * Constructs an empty Bloom filter. The total length of the Bloom filter will be
@@ -67,13 +95,15 @@ public class BloomFilter<E> implements Serializable {
       * @param n is the expected number of elements the filter will contain.
       * @param k is the number of hash functions used.
       */
-    public BloomFilter(double c, int n, int k) {
+    public BloomFilter(double c, long n, int k) {
       this.expectedNumberOfFilterElements = n;
       this.k = k;
       this.bitsPerElement = c;
-      this.bitSetSize = (int)Math.ceil(c * n);
-      numberOfAddedElements = 0;
-      this.bitset = new BitSet(bitSetSize);
+      this.bitSetSize = Math.max(64, (long)Math.ceil(c * n));
+      long count = (bitSetSize + 63) >>> 6;
+      if (count > Integer.MAX_VALUE)
+          throw new IllegalArgumentException("Bloom filter of " + bitSetSize + " bits is too large!");
+      this.words = new AtomicLongArray((int) count);
     }
 
     /**
@@ -83,10 +113,10 @@ public class BloomFilter<E> implements Serializable {
      * @param bitSetSize defines how many bits should be used in total for the filter.
      * @param expectedNumberOElements defines the maximum number of elements the filter is expected to contain.
      */
-    public BloomFilter(int bitSetSize, int expectedNumberOElements) {
+    public BloomFilter(long bitSetSize, long expectedNumberOElements) {
         this(bitSetSize / (double)expectedNumberOElements,
              expectedNumberOElements,
-             (int) Math.round((bitSetSize / (double)expectedNumberOElements) * Math.log(2.0)));
+             (int) Math.max(1, Math.round((bitSetSize / (double)expectedNumberOElements) * Math.log(2.0))));
     }
 
     /**
@@ -97,7 +127,7 @@ public class BloomFilter<E> implements Serializable {
      * @param falsePositiveProbability is the desired false positive probability.
      * @param expectedNumberOfElements is the expected number of elements in the Bloom filter.
      */
-    public BloomFilter(double falsePositiveProbability, int expectedNumberOfElements) {
+    public BloomFilter(double falsePositiveProbability, long expectedNumberOfElements) {
         this(Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2))) / Math.log(2), // c = k / ln(2)
              expectedNumberOfElements,
              (int)Math.ceil(-(Math.log(falsePositiveProbability) / Math.log(2)))); // k = ceil(-log_2(false prob.))
@@ -113,8 +143,119 @@ public class BloomFilter<E> implements Serializable {
      */
     public BloomFilter(int bitSetSize, int expectedNumberOfFilterElements, int actualNumberOfFilterElements, BitSet filterData) {
         this(bitSetSize, expectedNumberOfFilterElements);
-        this.bitset = filterData;
-        this.numberOfAddedElements = actualNumberOfFilterElements;
+        long[] data = filterData.toLongArray();
+        for (int i = 0; i < data.length && i < words.length(); i++)
+            words.set(i, data[i]);
+        this.numberOfAddedElements.add(actualNumberOfFilterElements);
+    }
+
+    private BloomFilter(ByteBuffer header) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!java.util.Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a bloom filter file!");
+        this.k = header.getInt(8);
+        this.bitSetSize = header.getLong(16);
+        this.expectedNumberOfFilterElements = header.getLong(24);
+        this.numberOfAddedElements.add(header.getLong(32));
+        this.seed = header.getLong(40);
+        this.bitsPerElement = bitSetSize / (double) expectedNumberOfFilterElements;
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0);
+        if (header.hasRemaining())
+            throw new IOException("Truncated bloom filter file header!");
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Opens a filter file read only by mapping it into memory. No bits are read up
+     * front; they are paged in as lookups touch them. Adding to the filter throws
+     * UnsupportedOperationException.
+     *
+     * @param file a filter written by write().
+     * @return the mapped filter.
+     * @throws IOException if the file is not a complete filter.
+     */
+    public static <E> BloomFilter<E> open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            BloomFilter<E> bloom = new BloomFilter<>(readHeader(channel));
+            long count = (bloom.bitSetSize + 63) >>> 6;
+            if (channel.size() < HEADER_SIZE + count * 8)
+                throw new IOException("Truncated bloom filter file: " + file.toString());
+            int segments = (int) ((count + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+            bloom.mapped = new LongBuffer[segments];
+            for (int i = 0; i < segments; i++) {
+                long first = (long) i << SEGMENT_BITS;
+                long len = Math.min(1L << SEGMENT_BITS, count - first);
+                // The mapping stays valid after the channel is closed
+                bloom.mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * 8, len * 8)
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            }
+            return bloom;
+        }
+    }
+
+    /**
+     * Reads a filter file into memory, where it can be added to.
+     *
+     * @param file a filter written by write().
+     * @return the filter.
+     * @throws IOException if the file is not a complete filter.
+     */
+    public static <E> BloomFilter<E> load(Path file) throws IOException {
+        BloomFilter<E> bloom = open(file);
+        AtomicLongArray data = new AtomicLongArray(bloom.wordCount());
+        for (int i = 0; i < data.length(); i++)
+            data.set(i, bloom.word(i));
+        bloom.words = data;
+        bloom.mapped = null;
+        return bloom;
+    }
+
+    /**
+     * Writes the filter in the file format described above.
+     *
+     * @param file the output file, replaced if it exists.
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(MAGIC).putInt(k).putInt(0).putLong(bitSetSize).putLong(expectedNumberOfFilterElements)
+                    .putLong(count()).putLong(seed).putLong(0).putLong(0);
+            int count = wordCount();
+            for (int i = 0; i < count; i++) {
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    while (buf.hasRemaining())
+                        channel.write(buf);
+                    buf.clear();
+                }
+                buf.putLong(word(i));
+            }
+            buf.flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    private int wordCount() {
+        return (int) ((bitSetSize + 63) >>> 6);
+    }
+
+    private long word(int i) {
+        if (mapped != null)
+            return mapped[i >>> SEGMENT_BITS].get(i & ((1 << SEGMENT_BITS) - 1));
+        return words.get(i);
+    }
+
+    private void checkWritable() {
+        if (mapped != null)
+            throw new UnsupportedOperationException("A mapped bloom filter is read only!");
     }
 
     /**
@@ -149,9 +290,8 @@ public class BloomFilter<E> implements Serializable {
     }
 
     /**
-     * Generates digests based on the contents of an array of bytes and splits the result into 4-byte int's and store them in an array. The
-     * digest function is called until the required number of int's are produced. For each call to digest a salt
-     * is prepended to the data. The salt is increased by 1 for each call.
+     * Generates int sized hashes of an array of bytes by double hashing of
+     * one 128 bit Murmur3 hash.
      *
      * @param data specifies input data.
      * @param hashes number of hashes/int's to produce.
@@ -159,27 +299,10 @@ public class BloomFilter<E> implements Serializable {
      */
     public static int[] createHashes(byte[] data, int hashes) {
         int[] result = new int[hashes];
-
-        int k = 0;
-        byte salt = 0;
-        while (k < hashes) {
-            byte[] digest;
-            synchronized (digestFunction) {
-                digestFunction.update(salt);
-                salt++;
-                digest = digestFunction.digest(data);                
-            }
-        
-            for (int i = 0; i < digest.length/4 && k < hashes; i++) {
-                int h = 0;
-                for (int j = (i*4); j < (i*4)+4; j++) {
-                    h <<= 8;
-                    h |= ((int) digest[j]) & 0xFF;
-                }
-                result[k] = h;
-                k++;
-            }
-        }
+        long[] h = new long[2];
+        Murmur3.hash128(data, 0, data.length, SEED, h);
+        for (int i = 0; i < hashes; i++)
+            result[i] = (int) ((h[0] + i * h[1]) >>> 32);
         return result;
     }
 
@@ -197,7 +320,7 @@ public class BloomFilter<E> implements Serializable {
         if (getClass() != obj.getClass()) {
             return false;
         }
-        final BloomFilter<E> other = (BloomFilter<E>) obj;        
+        final BloomFilter<E> other = (BloomFilter<E>) obj;
         if (this.expectedNumberOfFilterElements != other.expectedNumberOfFilterElements) {
             return false;
         }
@@ -207,8 +330,9 @@ public class BloomFilter<E> implements Serializable {
         if (this.bitSetSize != other.bitSetSize) {
             return false;
         }
-        if (this.bitset != other.bitset && (this.bitset == null || !this.bitset.equals(other.bitset))) {
-            return false;
+        for (int i = 0; i < wordCount(); i++) {
+            if (word(i) != other.word(i))
+                return false;
         }
         return true;
     }
@@ -220,9 +344,12 @@ public class BloomFilter<E> implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = 61 * hash + (this.bitset != null ? this.bitset.hashCode() : 0);
-        hash = 61 * hash + this.expectedNumberOfFilterElements;
-        hash = 61 * hash + this.bitSetSize;
+        long bits = 1;
+        for (int i = 0; i < wordCount(); i++)
+            bits = 31 * bits + word(i);
+        hash = 61 * hash + Long.hashCode(bits);
+        hash = 61 * hash + Long.hashCode(this.expectedNumberOfFilterElements);
+        hash = 61 * hash + Long.hashCode(this.bitSetSize);
         hash = 61 * hash + this.k;
         return hash;
     }
@@ -264,7 +391,7 @@ public class BloomFilter<E> implements Serializable {
      * @return probability of false positives.
      */
     public double getFalsePositiveProbability() {
-        return getFalsePositiveProbability(numberOfAddedElements);
+        return getFalsePositiveProbability(numberOfAddedElements.sum());
     }
 
 
@@ -284,8 +411,10 @@ public class BloomFilter<E> implements Serializable {
      * Sets all bits to false in the Bloom filter.
      */
     public void clear() {
-        bitset.clear();
-        numberOfAddedElements = 0;
+        checkWritable();
+        for (int i = 0; i < words.length(); i++)
+            words.set(i, 0L);
+        numberOfAddedElements.reset();
     }
 
     /**
@@ -304,10 +433,22 @@ public class BloomFilter<E> implements Serializable {
      * @param bytes array of bytes to add to the Bloom filter.
      */
     public void add(byte[] bytes) {
-       int[] hashes = createHashes(bytes, k);
-       for (int hash : hashes)
-           bitset.set(Math.abs(hash % bitSetSize), true);
-       numberOfAddedElements ++;
+        add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Adds a range of bytes to the Bloom filter. Safe to call from many threads at once.
+     *
+     * @param bytes array holding the data.
+     * @param off start of the data.
+     * @param len length of the data.
+     */
+    public void add(byte[] bytes, int off, int len) {
+        long[] h = new long[2];
+        Murmur3.hash128(bytes, off, len, seed, h);
+        for (int i = 0; i < k; i++)
+            setBit(index(h, i), true);
+        numberOfAddedElements.increment();
     }
 
     /**
@@ -318,7 +459,7 @@ public class BloomFilter<E> implements Serializable {
         for (E element : c)
             add(element);
     }
-        
+
     /**
      * Returns true if the element could have been inserted into the Bloom filter.
      * Use getFalsePositiveProbability() to calculate the probability of this
@@ -340,15 +481,33 @@ public class BloomFilter<E> implements Serializable {
      * @return true if the array could have been inserted into the Bloom filter.
      */
     public boolean contains(byte[] bytes) {
-        int[] hashes = createHashes(bytes, k);
-        for (int hash : hashes) {
-            if (!bitset.get(Math.abs(hash % bitSetSize))) {
+        return contains(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns true if the range of bytes could have been inserted into the Bloom filter.
+     *
+     * @param bytes array holding the data.
+     * @param off start of the data.
+     * @param len length of the data.
+     * @return true if the data could have been inserted into the Bloom filter.
+     */
+    public boolean contains(byte[] bytes, int off, int len) {
+        long[] h = new long[2];
+        Murmur3.hash128(bytes, off, len, seed, h);
+        for (int i = 0; i < k; i++) {
+            if (!getBit(index(h, i))) {
                 return false;
             }
         }
         return true;
     }
 
+    // The i'th bit position of a key, from the two halves of its hash
+    private long index(long[] h, int i) {
+        return ((h[0] + i * h[1]) >>> 1) % bitSetSize;
+    }
+
     /**
      * Returns true if all the elements of a Collection could have been inserted
      * into the Bloom filter. Use getFalsePositiveProbability() to calculate the
@@ -368,25 +527,38 @@ public class BloomFilter<E> implements Serializable {
      * @param bit the bit to read.
      * @return true if the bit is set, false if it is not.
      */
-    public boolean getBit(int bit) {
-        return bitset.get(bit);
+    public boolean getBit(long bit) {
+        return (word((int) (bit >>> 6)) & (1L << bit)) != 0;
     }
 
     /**
-     * Set a single bit in the Bloom filter.
+     * Set a single bit in the Bloom filter. Bits are changed with compare and set,
+     * so concurrent calls never lose each other's bits.
      * @param bit is the bit to set.
      * @param value If true, the bit is set. If false, the bit is cleared.
      */
-    public void setBit(int bit, boolean value) {
-        bitset.set(bit, value);
+    public void setBit(long bit, boolean value) {
+        checkWritable();
+        int w = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long old;
+        do {
+            old = words.get(w);
+            // Most probes of a filter in use land on bits that are already set
+            if (((old & mask) != 0) == value)
+                return;
+        } while (!words.compareAndSet(w, old, old ^ mask));
     }
 
     /**
-     * Return the bit set used to store the Bloom filter.
+     * Return a copy of the bits used to store the Bloom filter.
      * @return bit set representing the Bloom filter.
      */
     public BitSet getBitSet() {
-        return bitset;
+        long[] data = new long[wordCount()];
+        for (int i = 0; i < data.length; i++)
+            data[i] = word(i);
+        return BitSet.valueOf(data);
     }
 
     /**
@@ -395,7 +567,7 @@ public class BloomFilter<E> implements Serializable {
      *
      * @return the size of the bitset used by the Bloom filter.
      */
-    public int size() {
+    public long size() {
         return this.bitSetSize;
     }
 
@@ -405,8 +577,8 @@ public class BloomFilter<E> implements Serializable {
      *
      * @return number of elements added to the Bloom filter.
      */
-    public int count() {
-        return this.numberOfAddedElements;
+    public long count() {
+        return this.numberOfAddedElements.sum();
     }
 
     /**
@@ -415,7 +587,7 @@ public class BloomFilter<E> implements Serializable {
      *
      * @return expected number of elements.
      */
-    public int getExpectedNumberOfElements() {
+    public long getExpectedNumberOfElements() {
         return expectedNumberOfFilterElements;
     }
 
@@ -436,6 +608,6 @@ public class BloomFilter<E> implements Serializable {
      * @return number of bits per element.
      */
     public double getBitsPerElement() {
-        return this.bitSetSize / (double)numberOfAddedElements;
+        return this.bitSetSize / (double)numberOfAddedElements.sum();
     }
-}
\ No newline at end of file
+}
@@ -42,6 +42,14 @@ public class EdgeWeightedGraph {
         return NumEdges;
     }
     
+    public void AddEdge(GraphEdge e){
+        int v = e.either();
+        int w = e.other(v);
+        this.adjacent.get(v).add(e);
+        this.adjacent.get(w).add(e);
+        this.NumEdges++;
+    }
+    
     public Iterable<GraphEdge> Adjacent(int v){
         assert(v > 0 && v <= MaxVertex);
         return this.adjacent.get(v);
@@ -5,59 +5,75 @@
  */
 package utils;
 
-import StrUtils.StrArray;
-import gziputils.ReaderReturn;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Class that can be used to sort a large file by splitting said file into several temporary sorted files and 
  * merging those files.
  * Changed to allow line segment sorting
- * ##ADDED## new bloom filter feature
+ * ##ADDED## read names of the merged file are kept for mate lookups
  * @author Greg Cope
  *
  */
 public class FastqFileQuickSort {
         private final Comparator<String[]> sorter;
-	private int maxChunkSize = 1000000000;
+        // Heap bytes for chunks; zero uses a quarter of the heap
+	private long maxChunkSize = 0;
+        private static final int SLAB_SIZE = 1 << 23;
+        // Most temp files held open at once during a merge
+        private int maxFanIn = 128;
+        private int sortThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int chunksInFlight = 2;
+        private boolean compressRuns = false;
+        private boolean radixSort = false;
 	private List<File> outputs = new ArrayList<>();
         // Changed temp dir to current working directory
 	private String tempDirectory = Paths.get("").toAbsolutePath().toString(); 
         private final String delimiter;
         private final int[] colOrder;
+        private final byte[] delimiterBytes;
+        // Records sorted by the default comparator are compared as bytes in the merge, without making Strings
+        private final boolean byteKeys;
         private boolean hasData = false;
+        // Set by any chunk that failed to be read, sorted or written, so that mergeChunks does not merge a partial set
+        private volatile boolean failed = false;
         
         private static final Logger log = Logger.getLogger(FastqFileQuickSort.class.getName());
         private Path tempFile;
         private long lineCount = 0;
-        private BloomFilter<String> bloom;
-        private final double fp = 1.0E-15;
+        private ReadNameSet names;
         private String identifier;
 
         public FastqFileQuickSort(String delimiter, int[] colOrder, String tmpoutbase){
 		this.sorter = new ComparatorDelegate(colOrder);
                 this.delimiter = delimiter;
                 this.colOrder = colOrder;
+                this.delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+                this.byteKeys = true;
                 this.createTemp(Paths.get(tmpoutbase));
 	}
         
@@ -65,6 +81,8 @@ public class FastqFileQuickSort {
 		this.sorter = sorter;
                 this.delimiter = delimiter;
                 this.colOrder = colOrder;
+                this.delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+                this.byteKeys = false;
                 this.createTemp(Paths.get(tmpoutbase));
 	}
 
@@ -81,193 +99,440 @@ public class FastqFileQuickSort {
 	}
 
 	/**
-	 * Sets the chunk size for temporary files
+	 * Sets the heap bytes used to hold chunks for temporary files, shared by the chunks in flight.
+	 * Chunk records are stored packed in byte slabs, so this counts real memory rather than characters
 	 * @param size
 	 */
-	public void setMaximumChunkSize(int size){
+	public void setMaximumChunkSize(long size){
 		this.maxChunkSize = size;
 	}	
 
 	/**
-	 * Reads the input io stream and splits it into sorted chunks which are written to temporary files. 
+	 * Sets the most temporary files that are merged at once; more are merged in several passes
+	 * @param fanIn
+	 */
+	public void setMaximumFanIn(int fanIn){
+		this.maxFanIn = (fanIn < 2)? 2 : fanIn;
+	}
+
+	/**
+	 * Compresses the temporary runs with fast deflate; this trades some CPU for less temp disk use
+	 * @param compress
+	 */
+	public void setCompressTempFiles(boolean compress){
+		this.compressRuns = compress;
+	}
+
+	/**
+	 * Sorts chunks by a radix sort of packed prefix keys from the first sort column, which suits long
+	 * read names that share a prefix. Only used with the default comparator
+	 * @param radix
+	 */
+	public void setRadixSort(boolean radix){
+		this.radixSort = radix;
+	}
+
+	/**
+	 * Sets the number of threads that sort chunks while the input is still being read
+	 * @param threads
+	 */
+	public void setSortThreads(int threads){
+		this.sortThreads = (threads < 1)? 1 : threads;
+	}
+
+	/**
+	 * Sets the most chunks that may wait to be sorted or written while the next chunk is read.
+	 * The chunk memory budget is shared between all of these chunks and the one being read
+	 * @param chunks
+	 */
+	public void setChunksInFlight(int chunks){
+		this.chunksInFlight = (chunks < 1)? 1 : chunks;
+	}
+
+	/**
+	 * Reads the input io stream and splits it into sorted chunks which are written to temporary files.
+	 * Reading, sorting and writing are pipelined: this thread reads the next chunk while earlier chunks
+	 * are sorted on the sort threads and written out by a single writer thread.
 	 * @param in
          * @param identifier
 	 * @throws IOException
 	 */
 	public void splitChunks(Path inFile, String identifier){
             outputs.clear();
+            this.failed = false;
             this.identifier = identifier;
-            BufferedReader br = null;
-            List<String[]> lines = new ArrayList<>(maxChunkSize);
+            // Each chunk gets an even share of the memory budget, so memory use is the same as sorting one chunk at a time
+            long budget = (maxChunkSize > 0)? maxChunkSize : Runtime.getRuntime().maxMemory() / 4;
+            long chunkLimit = Math.max(1, budget / (chunksInFlight + 1));
+            // Slabs are counted whole, so they are kept small next to the chunk limit
+            int slabSize = (int) Math.min(SLAB_SIZE, chunkLimit / 8);
+            RecordArena chunk = new RecordArena(slabSize);
+            Semaphore inFlight = new Semaphore(chunksInFlight);
+            ExecutorService sortPool = Executors.newFixedThreadPool(sortThreads);
+            ExecutorService writer = Executors.newSingleThreadExecutor();
             log.log(Level.INFO, "[TXTFILESORT] Beginning sort routine for bin: " + identifier);
-            try{
-                br = ReaderReturn.openFile(inFile.toFile());
-                //String line = null;
-                int currChunkSize = 0;
-                String head, seq, plus, qual;
-                while ((head = br.readLine() ) != null ){
-                    seq = br.readLine();
-                    plus = br.readLine();
-                    qual = br.readLine();
-                    
-                    if(seq == null || plus == null || qual == null){
-                        log.log(Level.INFO, "[TXTFILESORT] Premature fastq file end for file: " + inFile.toString());
-                        break;
-                    }
-
-                    head = head.trim();
-                    seq = seq.trim();
-                    plus = plus.trim();
-                    qual = qual.trim();
-
+            try(FastqRecordReader reader = new FastqRecordReader(inFile)){
+                while(reader.next()){
                     this.hasData = true;
                     this.lineCount++;
-                    lines.add(new String[]{head, seq, plus, qual});
-                    currChunkSize += head.length() + seq.length() + plus.length() + qual.length() + 1;
-                    
-                    if ( currChunkSize >= maxChunkSize ){
-                        currChunkSize = 0;
-                        Collections.sort(lines, sorter);
-                        double rand = Math.random();
-                        String tmpfile = tempDirectory + "/tempsplit" + System.currentTimeMillis() + "." + rand;
-                        File file = new File(tmpfile);
-                        file.deleteOnExit();
-                        log.log(Level.INFO, "[TXTFILESORT] Created new chunk temp file: " + tmpfile + " for bin: " + identifier);
+                    chunk.add(reader);
+
+                    long used = chunk.heapBytes() + ((radixSort)? (long) chunk.size() * RecordArena.RADIX_BYTES : 0);
+                    if ( used >= chunkLimit ){
+                        // Blocks until a chunk slot is free, so only a bounded number of chunks are held
+                        inFlight.acquire();
+                        File file = createChunkFile();
+                        log.log(Level.INFO, "[TXTFILESORT] Created new chunk temp file: " + file.toString() + " for bin: " + identifier);
                         outputs.add(file);
-                        writeOut(lines, new FileOutputStream(file));
-                        lines.clear();
+                        sortPool.execute(new SortChunkJob(chunk, file, writer, inFlight));
+                        chunk = new RecordArena(slabSize);
                     }
                 }
                 //write out the remaining chunk
-                Collections.sort(lines, sorter);
-                double rand = Math.random();
-                String tmpfile = tempDirectory + "/tempsplit" + System.currentTimeMillis() + "." + rand;
-                File file = new File(tmpfile);
-                file.deleteOnExit();
-                log.log(Level.FINE, "[TXTFILESORT] Created new chunk temp file: " + tmpfile + " for bin: " + identifier);
+                inFlight.acquire();
+                File file = createChunkFile();
+                log.log(Level.FINE, "[TXTFILESORT] Created new chunk temp file: " + file.toString() + " for bin: " + identifier);
                 outputs.add(file);
-                writeOut(lines, new FileOutputStream(file));
-                log.log(Level.FINE, "[TXTFILESORT] Finished split chunk routine. Had files? " + this.hasData);
-                lines.clear();
+                sortPool.execute(new SortChunkJob(chunk, file, writer, inFlight));
             }catch(IOException io){
                 log.log(Level.SEVERE, "[TXTFILESORT] Error reading from inputstream: " + inFile.toString(), io);
+                this.failed = true;
+            }catch(InterruptedException ex){
+                log.log(Level.SEVERE, "[TXTFILESORT] Interrupted while waiting for chunk sort threads!", ex);
+                this.failed = true;
             }finally{
-                if ( br != null )try{br.close();}catch(Exception e){
-                    log.log(Level.SEVERE, "[TXTFILESORT] Error closing inputstream: " + inFile.toString(), e);
+                // Sort jobs hand their chunks to the writer, so the sort pool has to finish first
+                sortPool.shutdown();
+                try {
+                    sortPool.awaitTermination(12, TimeUnit.HOURS);
+                    writer.shutdown();
+                    writer.awaitTermination(12, TimeUnit.HOURS);
+                } catch (InterruptedException ex) {
+                    log.log(Level.SEVERE, "[TXTFILESORT] Error terminating chunk sort thread pool!", ex);
+                    this.failed = true;
                 }
+                log.log(Level.FINE, "[TXTFILESORT] Finished split chunk routine. Had files? " + this.hasData);
             }
 	}
 
+        /*
+        * Sorts one chunk on a sort thread, then queues it for the writer thread
+        */
+        private class SortChunkJob implements Runnable{
+            private final RecordArena chunk;
+            private final File file;
+            private final ExecutorService writer;
+            private final Semaphore inFlight;
+
+            public SortChunkJob(RecordArena chunk, File file, ExecutorService writer, Semaphore inFlight){
+                this.chunk = chunk;
+                this.file = file;
+                this.writer = writer;
+                this.inFlight = inFlight;
+            }
+
+            @Override
+            public void run() {
+                boolean queued = false;
+                try{
+                    if(byteKeys && radixSort)
+                        chunk.radixSort(colOrder);
+                    else if(byteKeys)
+                        chunk.sort(colOrder);
+                    else
+                        chunk.sort(sorter);
+                    writer.execute(() -> {
+                        // Sorted records are copied out as they are, in the binary run format
+                        try(OutputStream out = openRunOutput(file)){
+                            chunk.writeTo(out);
+                        }catch(IOException | RuntimeException io){
+                            log.log(Level.SEVERE, "[TXTFILESORT] Error writing chunk temp file: " + file.toString(), io);
+                            failed = true;
+                        }finally{
+                            inFlight.release();
+                        }
+                    });
+                    queued = true;
+                }catch(RuntimeException ex){
+                    log.log(Level.SEVERE, "[TXTFILESORT] Error sorting chunk for temp file: " + file.toString(), ex);
+                    failed = true;
+                }finally{
+                    // The reader must not wait forever on a chunk that failed to sort
+                    if(!queued)
+                        inFlight.release();
+                }
+            }
+        }
+
 	/**
-	 * Writes the list of lines out to the output stream, append new lines after each line.
-	 * @param list
-	 * @param os
-	 * @throws IOException
+	 * Reads the temporary files created by splitChunks method and merges them in a sorted manner into the output stream.
+	 * If there are more temporary files than the fan in limit, they are first merged in groups into fewer,
+	 * larger files.
+	 * @throws IOException if a chunk failed to be read, sorted or written, or a merge fails
 	 */
-	private void writeOut(List<String[]> list, OutputStream os) throws IOException{
-            BufferedWriter writer = null;
+	public void mergeChunks() throws IOException{
+            if(this.failed){
+                for(File f : outputs)
+                    f.delete();
+                outputs.clear();
+                throw new IOException("[TXTFILESORT] Not merging bin: " + identifier + " since one of its chunks failed");
+            }
+            this.names = null;
+            int pass = 0;
+            while(outputs.size() > maxFanIn){
+                pass++;
+                List<File> merged = new ArrayList<>();
+                for(int i = 0; i < outputs.size(); i += maxFanIn){
+                    List<File> group = outputs.subList(i, Math.min(outputs.size(), i + maxFanIn));
+                    if(group.size() == 1){
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    File file = createChunkFile();
+                    mergeRuns(group, file, false);
+                    merged.add(file);
+                }
+                log.log(Level.INFO, "[TXTFILESORT] Merge pass " + pass + " reduced " + outputs.size() + " chunks to " + merged.size() + " for bin: " + identifier);
+                outputs = merged;
+            }
+            // Sets that would take up more than a quarter of the heap are kept off heap
+            this.names = new ReadNameSet(this.lineCount * 8 > Runtime.getRuntime().maxMemory() / 4);
             try{
-                writer = new BufferedWriter(new OutputStreamWriter(os));
-                for ( String[] s : list ){
-                        writer.write(StrArray.Join(s, delimiter));
-                        writer.write(System.lineSeparator());
+                mergeRuns(outputs, this.tempFile.toFile(), true);
+                this.names.seal();
+            }catch(IOException ex){
+                // A set without all of the names is not handed out
+                this.names = null;
+                throw ex;
+            }
+	}
+
+        /*
+        * k-way merge of sorted runs through a binary heap of run cursors; the input runs are deleted afterwards.
+        * Intermediate merges write another binary run, the final merge writes delimited text lines
+        */
+        private void mergeRuns(List<File> runs, File output, boolean isFinal) throws IOException{
+            RunCursor[] heap = new RunCursor[runs.size()];
+            int size = 0;
+            byte[] nl = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+            OutputStream os = (isFinal)? new BufferedOutputStream(new FileOutputStream(output), 1 << 16) : openRunOutput(output);
+            try(OutputStream writer = os){
+                for(int i = 0; i < runs.size(); i++){
+                    RunCursor cursor = new RunCursor(runs.get(i), i);
+                    if(cursor.advance())
+                        heap[size++] = cursor;
+                    else
+                        cursor.close();
+                }
+                for(int i = size / 2 - 1; i >= 0; i--)
+                    siftDown(heap, size, i);
+
+                while(size > 0){
+                    RunCursor top = heap[0];
+                    if(isFinal){
+                        // sample readname
+                        int start = top.starts[0], end = start;
+                        while(end < top.ends[0] && top.record[end] != ' ')
+                            end++;
+                        this.names.add(ReadNameSet.fingerprint(top.record, start, end - start));
+                        for(int c = 0; c < top.columns; c++){
+                            if(c > 0)
+                                writer.write(delimiterBytes);
+                            writer.write(top.record, top.starts[c], top.ends[c] - top.starts[c]);
+                        }
+                        writer.write(nl);
+                    }else{
+                        // Records are copied to the next run as they are
+                        RecordArena.writeVarint(writer, top.size);
+                        writer.write(top.record, 0, top.size);
+                    }
+
+                    // The next record of the same run replaces the top, so each record costs one sift
+                    if(!top.advance()){
+                        top.close();
+                        heap[0] = heap[--size];
+                        heap[size] = null;
+                    }
+                    siftDown(heap, size, 0);
                 }
                 writer.flush();
             }catch(IOException io){
-                log.log(Level.SEVERE, "[TXTFILESORT] Error writing to outputstream: " + os.toString(), io);
+                log.log(Level.SEVERE, "[TXTFILESORT] Error merging " + runs.size() + " files to: " + output.toString(), io);
+                throw io;
             }finally{
-                if ( writer != null ){
-                    try{writer.close();}catch(Exception e){
-                        log.log(Level.SEVERE, "[TXTFILESORT] Error closing output stream!", e);
+                for(int i = 0; i < size; i++)
+                    heap[i].close();
+                for(File f : runs)
+                    f.delete();
+            }
+        }
+
+        private void siftDown(RunCursor[] heap, int size, int i){
+            if(size == 0)
+                return;
+            RunCursor c = heap[i];
+            while(true){
+                int child = 2 * i + 1;
+                if(child >= size)
+                    break;
+                if(child + 1 < size && compareCursors(heap[child + 1], heap[child]) < 0)
+                    child++;
+                if(compareCursors(heap[child], c) >= 0)
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = c;
+        }
+
+        // Ties go to the earlier run, which keeps the merge stable
+        private int compareCursors(RunCursor a, RunCursor b){
+            int c = (byteKeys)? compareColumns(a, b) : sorter.compare(a.fields(), b.fields());
+            return (c != 0)? c : Integer.compare(a.index, b.index);
+        }
+
+        /*
+        * ComparatorDelegate order on the encoded columns: unsigned UTF-8 byte order is the same as String order
+        * outside of surrogate pairs
+        */
+        private int compareColumns(RunCursor a, RunCursor b){
+            for(int col : colOrder){
+                int c = RecordArena.compareBytes(a.record, a.starts[col], a.ends[col], b.record, b.starts[col], b.ends[col]);
+                if(c != 0)
+                    return c;
+            }
+            return RecordArena.compareBytes(a.record, a.starts[0], a.ends[0], b.record, b.starts[0], b.ends[0]);
+        }
+
+        private OutputStream openRunOutput(File file) throws IOException{
+            OutputStream os = new FileOutputStream(file);
+            if(compressRuns){
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                os = new DeflaterOutputStream(os, deflater, 1 << 16){
+                    @Override
+                    public void close() throws IOException{
+                        try{super.close();}finally{deflater.end();}
                     }
-                }
+                };
             }
-	}
+            return new BufferedOutputStream(os, 1 << 16);
+        }
 
-	/**
-	 * Reads the temporary files created by splitChunks method and merges them in a sorted manner into the output stream.
-	 * @param os
-	 * @throws IOException
-	 */
-	public void mergeChunks() throws IOException{
-            OutputStream os = new FileOutputStream(this.tempFile.toFile());
-            int lineC = this.convertLongToInt(this.lineCount);
-            this.bloom = new BloomFilter<>(fp, lineC);
-            
-		Map<StringWrapper, BufferedReader> map = new HashMap<>();
-		List<BufferedReader> readers = new ArrayList<>();
-		BufferedWriter writer = null;
-		//ComparatorDelegate delegate = new ComparatorDelegate();
-		try{
-			writer = new BufferedWriter(new OutputStreamWriter(os));
-			for ( int i = 0; i < outputs.size(); i++ ){
-				BufferedReader reader = new BufferedReader(new FileReader(outputs.get(i)));
-                                
-				String line = reader.readLine();
-				if ( line != null ){
-                                        readers.add(reader);
-					map.put(new StringWrapper(line.split(delimiter), colOrder), readers.get(readers.size() - 1));
-				}
-			}
-
-			///continue to loop until no more lines lefts
-			List<StringWrapper> sorted = new LinkedList<>(map.keySet());
-			while ( map.size() > 0 ){
-				Collections.sort(sorted);
-				StringWrapper line = sorted.remove(0);
-                                
-                                // sample readname
-                                String[] substr = line.string[0].split(" ");
-                                this.bloom.add(substr[0]);
-                                
-                                String outstr = StrArray.Join(line.string, delimiter);
-				writer.write(outstr);
-				writer.write(System.lineSeparator());
-				BufferedReader reader = map.remove(line);
-				String nextLine = reader.readLine();
-				if ( nextLine != null ){
-					StringWrapper sw = new StringWrapper(nextLine.split(delimiter), colOrder);
-					map.put(sw,  reader);
-					sorted.add(sw);
-				}
-			}
-			writer.flush();
-		}catch(IOException io){
-			log.log(Level.SEVERE, "[TXTFILESORT] Error merging " + readers.size() + " files to: " + os.toString(), io);
-		}finally{
-			for ( int i = 0; i < readers.size(); i++ ){
-				try{readers.get(i).close();}catch(Exception e){
-                                    log.log(Level.SEVERE, "[TXTFILESORT] Could not close buffered reader merger: " + readers.get(i).toString());
-                                }
-			}
-			for ( int i = 0; i < outputs.size(); i++ ){
-				outputs.get(i).delete();
-			}
-                        
-			try{writer.close();}catch(Exception e){
-                            log.log(Level.SEVERE, "[TXTFILESORT] Erorr closing merge output writer!", e);
-                        }
-		}
-                os.close();
-	}
-        
-        private int convertLongToInt(long items){
-            if(items > Integer.MAX_VALUE){
-                return Integer.MAX_VALUE;
+        private InputStream openRunInput(File file) throws IOException{
+            InputStream is = new FileInputStream(file);
+            if(compressRuns){
+                Inflater inflater = new Inflater();
+                is = new InflaterInputStream(is, inflater, 1 << 16){
+                    @Override
+                    public void close() throws IOException{
+                        try{super.close();}finally{inflater.end();}
+                    }
+                };
             }
-            else return (int) items;
+            return new BufferedInputStream(is, 1 << 16);
         }
-        
-        private double calcNumBitsPerItem(int items){
-            return Math.ceil((items * Math.log(fp)) / Math.log(1.0d / (Math.pow(2.0d, Math.log(2.0d)))));
+
+        private File createChunkFile(){
+            double rand = Math.random();
+            String tmpfile = tempDirectory + "/tempsplit" + System.currentTimeMillis() + "." + rand;
+            File file = new File(tmpfile);
+            file.deleteOnExit();
+            return file;
+        }
+
+        /*
+        * A buffered read position in one sorted run. Each record is read into a buffer that is reused
+        * for the whole run, and its columns are located in place
+        */
+        private class RunCursor implements AutoCloseable{
+            private final InputStream input;
+            public final int index;
+            public byte[] record = new byte[1024];
+            public int size = 0;
+            public int columns = 0;
+            public int[] starts = new int[4];
+            public int[] ends = new int[4];
+            private String[] fields = null;
+
+            public RunCursor(File run, int index) throws IOException{
+                this.input = openRunInput(run);
+                this.index = index;
+            }
+
+            public boolean advance() throws IOException{
+                int first = input.read();
+                if(first < 0)
+                    return false;
+                size = readVarint(first);
+                if(size > record.length)
+                    record = new byte[Math.max(size, record.length * 2)];
+                int read = 0;
+                while(read < size){
+                    int n = input.read(record, read, size - read);
+                    if(n < 0)
+                        throw new EOFException("Truncated temporary sort run!");
+                    read += n;
+                }
+
+                int[] pos = new int[]{0};
+                columns = varintAt(pos);
+                if(columns > starts.length){
+                    starts = new int[columns];
+                    ends = new int[columns];
+                }
+                for(int c = 0; c < columns; c++){
+                    int len = varintAt(pos);
+                    starts[c] = pos[0];
+                    ends[c] = pos[0] + len;
+                    pos[0] += len;
+                }
+                fields = null;
+                return true;
+            }
+
+            private int readVarint(int b) throws IOException{
+                int v = 0, shift = 0;
+                while((b & 0x80) != 0){
+                    v |= (b & 0x7f) << shift;
+                    shift += 7;
+                    b = input.read();
+                    if(b < 0)
+                        throw new EOFException("Truncated temporary sort run!");
+                }
+                return v | (b << shift);
+            }
+
+            private int varintAt(int[] pos){
+                int v = 0, shift = 0, b;
+                while(((b = record[pos[0]++]) & 0x80) != 0){
+                    v |= (b & 0x7f) << shift;
+                    shift += 7;
+                }
+                return v | (b << shift);
+            }
+
+            /*
+            * The record as Strings, only needed for a custom comparator
+            */
+            public String[] fields(){
+                if(fields == null){
+                    fields = new String[columns];
+                    for(int c = 0; c < columns; c++)
+                        fields[c] = new String(record, starts[c], ends[c] - starts[c], StandardCharsets.UTF_8);
+                }
+                return fields;
+            }
+
+            @Override
+            public void close(){
+                try{input.close();}catch(IOException e){
+                    log.log(Level.SEVERE, "[TXTFILESORT] Could not close buffered reader merger: " + input.toString());
+                }
+            }
         }
-        
-        private int calcNumHashFunc(int items, double numBits){
-            return (int) Math.round(Math.log(2.0d) * numBits / items);
-        } 
         
         public QuickSortOutput getOutput(){
-            return new QuickSortOutput(this.bloom, this.tempFile, this.identifier);
+            return new QuickSortOutput(this.names, this.tempFile, this.identifier);
         }
         
         /*
@@ -294,11 +559,11 @@ public class FastqFileQuickSort {
         }
         
         public class QuickSortOutput{
-            public BloomFilter bloom;
+            public ReadNameSet names;
             public Path output;
             public String id;
-            public QuickSortOutput(BloomFilter bloom, Path output, String identifier){
-                this.bloom = bloom;
+            public QuickSortOutput(ReadNameSet names, Path output, String identifier){
+                this.names = names;
                 this.output = output;
                 this.id = identifier;
             }
@@ -328,31 +593,4 @@ public class FastqFileQuickSort {
             
 	}
 
-	/**
-	 * Class which is a wrapper class for a String. This is necessary for String duplicates, which may cause equals/hashCode
-	 * conflicts within the HashMap used in the file merge.
-	 * @author Greg Cope
-	 *
-	 */
-	private class StringWrapper implements Comparable<StringWrapper>{		
-
-            public final String[] string;
-            private final int[] cols;
-
-            public StringWrapper(String[] line, int[] cols){
-                    this.string = line;
-                    this.cols = cols;
-            }		
-
-            @Override
-            public int compareTo(StringWrapper t) {
-                for(int i : cols){
-                    if(this.string[i].equals(t.string[i]));
-                    else
-                        return this.string[i].compareTo(t.string[i]);
-                }
-                return this.string[0].compareTo(t.string[0]);
-            }
-	}
-
 }
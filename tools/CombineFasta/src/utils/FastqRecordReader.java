@@ -0,0 +1,201 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import gziputils.ReaderReturn;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads four line fastq records from a plain or gzipped file as bytes. The
+ * current record is held in one reused array, with each line trimmed of
+ * surrounding whitespace as the old String based readers did.
+ * @author dbickhart
+ */
+public class FastqRecordReader implements AutoCloseable{
+    private static final Logger log = Logger.getLogger(FastqRecordReader.class.getName());
+    private final InputStream input;
+    private final String source;
+    private final byte[] buffer = new byte[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] record = new byte[1024];
+    private int length = 0;
+    private final int[] starts = new int[4];
+    private final int[] ends = new int[4];
+    private int nameEnd = 0;
+
+    public FastqRecordReader(Path file) throws IOException{
+        InputStream in = Files.newInputStream(file);
+        if(ReaderReturn.isGZipped(file.toFile()))
+            in = new GZIPInputStream(in, 1 << 16);
+        this.input = in;
+        this.source = file.toString();
+    }
+
+    public FastqRecordReader(InputStream input, String source){
+        this.input = input;
+        this.source = source;
+    }
+
+    /**
+     * Reads the next record
+     * @return false at the end of the file, or if the file ends part way through a record
+     * @throws IOException
+     */
+    public boolean next() throws IOException{
+        // Blank lines between records are skipped
+        do{
+            length = 0;
+            if(!readLine(0))
+                return false;
+        }while(starts[0] == ends[0]);
+
+        for(int l = 1; l < 4; l++){
+            if(!readLine(l)){
+                log.log(Level.INFO, "Premature fastq file end for file: " + source);
+                return false;
+            }
+        }
+
+        // The read name is the first word of the header, less any /1 or /2 mate suffix
+        int e = starts[0];
+        while(e < ends[0] && record[e] > ' ')
+            e++;
+        if(e - starts[0] > 2 && record[e - 2] == '/' && (record[e - 1] == '1' || record[e - 1] == '2'))
+            e -= 2;
+        nameEnd = e;
+        return true;
+    }
+
+    private boolean readLine(int line) throws IOException{
+        int start = length;
+        boolean any = false;
+        while(true){
+            if(pos == limit){
+                limit = input.read(buffer, 0, buffer.length);
+                pos = 0;
+                if(limit <= 0){
+                    limit = 0;
+                    if(!any)
+                        return false;
+                    break;
+                }
+            }
+            any = true;
+            int i = pos;
+            while(i < limit && buffer[i] != '\n')
+                i++;
+            append(buffer, pos, i - pos);
+            if(i < limit){
+                pos = i + 1;
+                break;
+            }
+            pos = i;
+        }
+        int s = start, e = length;
+        while(s < e && record[s] <= ' ')
+            s++;
+        while(e > s && record[e - 1] <= ' ')
+            e--;
+        starts[line] = s;
+        ends[line] = e;
+        return true;
+    }
+
+    private void append(byte[] src, int off, int len){
+        if(length + len > record.length)
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + len));
+        System.arraycopy(src, off, record, length, len);
+        length += len;
+    }
+
+    public byte[] getRecord(){
+        return this.record;
+    }
+
+    public int getLineStart(int line){
+        return this.starts[line];
+    }
+
+    public int getLineEnd(int line){
+        return this.ends[line];
+    }
+
+    public int getNameStart(){
+        return this.starts[0];
+    }
+
+    public int getNameEnd(){
+        return this.nameEnd;
+    }
+
+    public String getName(){
+        return new String(record, starts[0], nameEnd - starts[0], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a 64 bit hash of the read name, equal for both reads of a pair
+     */
+    public long getNameHash(){
+        return Murmur3.hash64(record, starts[0], nameEnd - starts[0], 0);
+    }
+
+    /**
+     * @param nl line terminator
+     * @return the number of bytes that writeTo will write
+     */
+    public int getWrittenLength(byte[] nl){
+        int size = 4 * nl.length;
+        for(int l = 0; l < 4; l++)
+            size += ends[l] - starts[l];
+        return size;
+    }
+
+    /**
+     * Writes the trimmed record as four lines
+     * @param output destination stream
+     * @param nl line terminator
+     * @throws IOException
+     */
+    public void writeTo(OutputStream output, byte[] nl) throws IOException{
+        for(int l = 0; l < 4; l++){
+            output.write(record, starts[l], ends[l] - starts[l]);
+            output.write(nl);
+        }
+    }
+
+    /**
+     * Copies the trimmed record as four lines into an array
+     * @param dest destination array, with room for getWrittenLength bytes
+     * @param off start offset in the destination
+     * @param nl line terminator
+     * @return the offset just past the copied record
+     */
+    public int writeTo(byte[] dest, int off, byte[] nl){
+        for(int l = 0; l < 4; l++){
+            System.arraycopy(record, starts[l], dest, off, ends[l] - starts[l]);
+            off += ends[l] - starts[l];
+            System.arraycopy(nl, 0, dest, off, nl.length);
+            off += nl.length;
+        }
+        return off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -12,6 +12,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
 
 /**
  *
@@ -86,6 +87,92 @@ public class KmerIntersection {
 	return count + "\t" + nucleotideFragment.toUpperCase() + '\n';
     }
 
+    // Packed k-mers: 2 bits a base, A=0 C=1 G=2 T=3, so the complement of a code is 3 - code
+    public static final int MAX_K = 31;
+    private static final byte[] CODES = new byte[256];
+    static {
+	Arrays.fill(CODES, (byte) -1);
+	CODES['A'] = CODES['a'] = 0;
+	CODES['C'] = CODES['c'] = 1;
+	CODES['G'] = CODES['g'] = 2;
+	CODES['T'] = CODES['t'] = 3;
+    }
+
+    /**
+     * Counts every canonical k-mer of a sequence in a new table sized for it
+     */
+    public static KmerTable countKmers(byte[] sequence, int k) {
+	KmerTable table = new KmerTable(Math.min(sequence.length, k < MAX_K ? 1L << (2 * k) : Long.MAX_VALUE));
+	countKmers(sequence, 0, sequence.length, k, table);
+	return table;
+    }
+
+    /**
+     * Adds every canonical k-mer of a stretch of sequence to a table
+     */
+    public static void countKmers(byte[] sequence, int offset, int length, int k, KmerTable table) {
+	forEachKmer(sequence, offset, length, k, table::increment);
+    }
+
+    /**
+     * Passes every canonical k-mer of a stretch of sequence to an action. The
+     * forward and reverse complement k-mers are rolled along together and the
+     * smaller one is used. Bases other than ACGT (either case) start a new window.
+     */
+    public static void forEachKmer(byte[] sequence, int offset, int length, int k, LongConsumer action) {
+	if (k < 1 || k > MAX_K)
+	    throw new IllegalArgumentException("K-mer length must be between 1 and " + MAX_K + ", not " + k);
+	final long mask = (1L << (2 * k)) - 1;
+	final int shift = 2 * (k - 1);
+	long forward = 0, reverse = 0;
+	int valid = 0;
+	for (int i = offset; i < offset + length; i++) {
+	    int code = CODES[sequence[i] & 0xff];
+	    if (code < 0) {
+		valid = 0;
+		continue;
+	    }
+	    // Stale bases from before a reset are shifted out by the time valid reaches k
+	    forward = ((forward << 2) | code) & mask;
+	    reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+	    if (++valid >= k)
+		action.accept(Math.min(forward, reverse));
+	}
+    }
+
+    public static long encode(byte[] sequence, int offset, int k) {
+	long kmer = 0;
+	for (int i = offset; i < offset + k; i++) {
+	    int code = CODES[sequence[i] & 0xff];
+	    if (code < 0)
+		throw new IllegalArgumentException("Non ACGT base at position " + i);
+	    kmer = (kmer << 2) | code;
+	}
+	return kmer;
+    }
+
+    public static long reverseComplement(long kmer, int k) {
+	long rev = 0;
+	for (int i = 0; i < k; i++) {
+	    rev = (rev << 2) | (3 - (kmer & 3));
+	    kmer >>>= 2;
+	}
+	return rev;
+    }
+
+    public static long canonical(long kmer, int k) {
+	return Math.min(kmer, reverseComplement(kmer, k));
+    }
+
+    public static String decode(long kmer, int k) {
+	char[] bases = new char[k];
+	for (int i = k - 1; i >= 0; i--) {
+	    bases[i] = "ACGT".charAt((int) (kmer & 3));
+	    kmer >>>= 2;
+	}
+	return new String(bases);
+    }
+
     /*
     public static void main (String[] args) throws Exception {
 	String line;
@@ -0,0 +1,165 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Counts of 2 bit packed k-mers, held in an open addressing table with linear
+ * probing. Keys and counts are kept in two primitive arrays, so a distinct k-mer
+ * costs 12 bytes a slot and no objects. K-mers of up to 31 bases fit in 62 bits,
+ * which leaves all ones free to mark an empty slot. Counts stop at
+ * Integer.MAX_VALUE. The table is not thread safe.
+ * @author dbickhart
+ */
+public class KmerTable {
+    public static final long EMPTY = -1L;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final double MAX_LOAD = 0.75;
+    private long[] keys;
+    private int[] counts;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+
+    public KmerTable(){
+        this(1 << 12);
+    }
+
+    /**
+     * @param expected the number of distinct k-mers expected; the table grows past it if needed
+     */
+    public KmerTable(long expected){
+        long capacity = Long.highestOneBit(Math.max(16, (long) (expected / MAX_LOAD)) - 1) << 1;
+        allocate((int) Math.min(MAX_CAPACITY, capacity));
+    }
+
+    private void allocate(int capacity){
+        this.keys = new long[capacity];
+        this.counts = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        this.mask = capacity - 1;
+        this.resizeAt = (capacity == MAX_CAPACITY)? capacity - 1 : (int) (capacity * MAX_LOAD);
+    }
+
+    private int slot(long kmer){
+        return (int) Murmur3.fmix64(kmer) & mask;
+    }
+
+    public void increment(long kmer){
+        add(kmer, 1);
+    }
+
+    /**
+     * Adds to the count of a k-mer, inserting it if it is new
+     */
+    public void add(long kmer, int count){
+        int s = slot(kmer);
+        while(true){
+            long k = keys[s];
+            if(k == kmer){
+                counts[s] = (int) Math.min(Integer.MAX_VALUE, (long) counts[s] + count);
+                return;
+            }
+            if(k == EMPTY){
+                keys[s] = kmer;
+                counts[s] = count;
+                if(++size > resizeAt)
+                    grow();
+                return;
+            }
+            s = (s + 1) & mask;
+        }
+    }
+
+    /**
+     * Sets the value of a k-mer, for tables that map k-mers to ids rather than counts
+     */
+    public void put(long kmer, int value){
+        int s = slot(kmer);
+        while(keys[s] != kmer && keys[s] != EMPTY)
+            s = (s + 1) & mask;
+        counts[s] = value;
+        if(keys[s] == EMPTY){
+            keys[s] = kmer;
+            if(++size > resizeAt)
+                grow();
+        }
+    }
+
+    /**
+     * @return the count of a k-mer, or 0 if it is not in the table
+     */
+    public int get(long kmer){
+        int s = slot(kmer);
+        while(true){
+            long k = keys[s];
+            if(k == kmer)
+                return counts[s];
+            if(k == EMPTY)
+                return 0;
+            s = (s + 1) & mask;
+        }
+    }
+
+    private void grow(){
+        if(keys.length == MAX_CAPACITY)
+            throw new IllegalStateException("K-mer table is full at " + size + " distinct k-mers!");
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(keys.length << 1);
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == EMPTY)
+                continue;
+            int s = slot(oldKeys[i]);
+            while(keys[s] != EMPTY)
+                s = (s + 1) & mask;
+            keys[s] = oldKeys[i];
+            counts[s] = oldCounts[i];
+        }
+    }
+
+    /**
+     * Empties the table, keeping its capacity
+     */
+    public void clear(){
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * @return the number of distinct k-mers
+     */
+    public int size(){
+        return size;
+    }
+
+    public int capacity(){
+        return keys.length;
+    }
+
+    /**
+     * @return bytes held by the table's arrays
+     */
+    public long heapBytes(){
+        return 12L * keys.length;
+    }
+
+    /**
+     * Visits every k-mer and its count, in table order
+     */
+    public void forEach(KmerConsumer consumer){
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i] != EMPTY)
+                consumer.accept(keys[i], counts[i]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface KmerConsumer{
+        void accept(long kmer, int count);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+/**
+ * MurmurHash3 x64 128 bit variant (Austin Appleby, public domain) over byte
+ * ranges, for hashing read names and k-mers without creating Strings.
+ * @author dbickhart
+ */
+public final class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Murmur3(){
+    }
+
+    /**
+     * @return the first 64 bits of the 128 bit hash
+     */
+    public static long hash64(byte[] data, int off, int len, long seed){
+        long[] out = new long[2];
+        hash128(data, off, len, seed, out);
+        return out[0];
+    }
+
+    /**
+     * Hashes a range of bytes
+     * @param data the bytes
+     * @param off start of the range
+     * @param len length of the range
+     * @param seed hash seed
+     * @param out receives the two 64 bit halves of the hash
+     */
+    // The tail switch falls through on purpose, as in the reference MurmurHash3
+    @SuppressWarnings("fallthrough")
+    public static void hash128(byte[] data, int off, int len, long seed, long[] out){
+        long h1 = seed, h2 = seed;
+        int end = off + (len & ~15);
+        for(int i = off; i < end; i += 16){
+            long k1 = getLong(data, i);
+            long k2 = getLong(data, i + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0, k2 = 0;
+        switch(len & 15){
+            case 15: k2 ^= (long) (data[end + 14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[end + 13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[end + 12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[end + 11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[end + 10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[end + 9] & 0xff) << 8;
+            case 9:  k2 ^= (long) (data[end + 8] & 0xff);
+                     h2 ^= mixK2(k2);
+            case 8:  k1 ^= (long) (data[end + 7] & 0xff) << 56;
+            case 7:  k1 ^= (long) (data[end + 6] & 0xff) << 48;
+            case 6:  k1 ^= (long) (data[end + 5] & 0xff) << 40;
+            case 5:  k1 ^= (long) (data[end + 4] & 0xff) << 32;
+            case 4:  k1 ^= (long) (data[end + 3] & 0xff) << 24;
+            case 3:  k1 ^= (long) (data[end + 2] & 0xff) << 16;
+            case 2:  k1 ^= (long) (data[end + 1] & 0xff) << 8;
+            case 1:  k1 ^= (long) (data[end] & 0xff);
+                     h1 ^= mixK1(k1);
+        }
+
+        h1 ^= len;
+        h2 ^= len;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        out[0] = h1;
+        out[1] = h2;
+    }
+
+    /**
+     * The Murmur3 finalizer; a fast, well distributed mix of a single long
+     */
+    public static long fmix64(long k){
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long mixK1(long k1){
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2){
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long getLong(byte[] data, int i){
+        return (data[i] & 0xffL) | (data[i + 1] & 0xffL) << 8 | (data[i + 2] & 0xffL) << 16
+                | (data[i + 3] & 0xffL) << 24 | (data[i + 4] & 0xffL) << 32 | (data[i + 5] & 0xffL) << 40
+                | (data[i + 6] & 0xffL) << 48 | (data[i + 7] & 0xffL) << 56;
+    }
+}
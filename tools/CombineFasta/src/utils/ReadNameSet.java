@@ -0,0 +1,279 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A set of read names, stored as sorted 64 bit Murmur3 fingerprints (8 bytes a
+ * read). Fingerprints are kept in pages so that the set is not limited to 2^31
+ * reads, and the sorted pages can be held off heap in direct buffers. A lookup
+ * is an interpolation search, since hashed fingerprints are evenly spread.
+ *
+ * While names are added only one page is held in memory: each page is sorted
+ * and written to a temp file as it fills, and seal merges the sorted pages back
+ * from the file into the final pages.
+ *
+ * Two different names share a fingerprint with a probability of about
+ * n / 2^64 per lookup; callers that need an exact answer should confirm a
+ * match against the name itself.
+ * @author dbickhart
+ */
+public class ReadNameSet {
+    private static final int DEFAULT_PAGE_BITS = 27;
+    private static final int IO_BUFFER = 1 << 16;
+    private final int pageBits;
+    private final int pageSize;
+    private final boolean offHeap;
+    // The page being filled, and null once seal is called
+    private long[] page;
+    private int fill = 0;
+    private long size = 0;
+    // Full pages, sorted and written out in the order they filled
+    private Path spill = null;
+    private FileChannel spillOut = null;
+    private int spilled = 0;
+    // Sorted fingerprints, in only one of these once seal is called
+    private long[][] heap = null;
+    private LongBuffer[] direct = null;
+
+    public ReadNameSet(){
+        this(false);
+    }
+
+    /**
+     * @param offHeap keep the sorted fingerprints in direct buffers, outside of the java heap
+     */
+    public ReadNameSet(boolean offHeap){
+        this(offHeap, DEFAULT_PAGE_BITS);
+    }
+
+    ReadNameSet(boolean offHeap, int pageBits){
+        this.offHeap = offHeap;
+        this.pageBits = pageBits;
+        this.pageSize = 1 << pageBits;
+        this.page = new long[Math.min(pageSize, 1024)];
+    }
+
+    public static long fingerprint(byte[] name, int off, int len){
+        return Murmur3.hash64(name, off, len, 0);
+    }
+
+    public static long fingerprint(String name){
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        return fingerprint(b, 0, b.length);
+    }
+
+    public void add(String name) throws IOException{
+        this.add(fingerprint(name));
+    }
+
+    public void add(long fingerprint) throws IOException{
+        if(page == null)
+            throw new IllegalStateException("Cannot add to a sealed read name set!");
+        if(fill == page.length){
+            if(page.length == pageSize)
+                spillPage();
+            else
+                page = Arrays.copyOf(page, Math.min(pageSize, page.length * 2));
+        }
+        page[fill++] = fingerprint;
+        size++;
+    }
+
+    public long size(){
+        return this.size;
+    }
+
+    /*
+     * Sorts the full page and appends it to the temp file; the page array is reused
+     */
+    private void spillPage() throws IOException{
+        if(spillOut == null){
+            spill = Files.createTempFile("readnames", ".tmp");
+            spill.toFile().deleteOnExit();
+            spillOut = FileChannel.open(spill, StandardOpenOption.WRITE);
+        }
+        Arrays.parallelSort(page);
+        ByteBuffer buf = ByteBuffer.allocate(IO_BUFFER);
+        for(int i = 0; i < fill; ){
+            buf.clear();
+            while(i < fill && buf.remaining() >= 8)
+                buf.putLong(page[i++]);
+            buf.flip();
+            while(buf.hasRemaining())
+                spillOut.write(buf);
+        }
+        spilled++;
+        fill = 0;
+    }
+
+    /**
+     * Sorts the fingerprints; no names can be added afterwards
+     */
+    public void seal() throws IOException{
+        if(page == null)
+            return;
+        Arrays.parallelSort(page, 0, fill);
+
+        int count = (int) ((size + pageSize - 1) >>> pageBits);
+        if(offHeap)
+            direct = new LongBuffer[count];
+        else
+            heap = new long[count][];
+
+        if(spilled == 0 && !offHeap && size > 0){
+            heap[0] = page;
+            page = null;
+            return;
+        }
+
+        // k-way merge of the sorted pages into the final pages
+        Run[] runs = new Run[spilled + 1];
+        try(FileChannel in = (spill == null)? null : FileChannel.open(spill, StandardOpenOption.READ)){
+            for(int r = 0; r < spilled; r++)
+                runs[r] = new Run(in, ((long) r << pageBits) * 8, pageSize);
+            runs[spilled] = new Run(page, fill);
+            page = null;
+            int k = 0;
+            for(Run r : runs){
+                if(r.advance())
+                    runs[k++] = r;
+            }
+            for(int t = 0; t < count; t++){
+                int len = (int) Math.min(pageSize, size - ((long) t << pageBits));
+                long[] out = (offHeap)? null : new long[len];
+                LongBuffer buf = (offHeap)? ByteBuffer.allocateDirect(len * 8).order(ByteOrder.nativeOrder()).asLongBuffer() : null;
+                for(int i = 0; i < len; i++){
+                    int best = 0;
+                    for(int s = 1; s < k; s++){
+                        if(runs[s].head < runs[best].head)
+                            best = s;
+                    }
+                    long v = runs[best].head;
+                    if(offHeap)
+                        buf.put(i, v);
+                    else
+                        out[i] = v;
+                    // Used up runs are dropped, which releases the in memory page
+                    if(!runs[best].advance()){
+                        runs[best] = runs[--k];
+                        runs[k] = null;
+                    }
+                }
+                if(offHeap)
+                    direct[t] = buf;
+                else
+                    heap[t] = out;
+            }
+        }finally{
+            if(spillOut != null){
+                spillOut.close();
+                Files.deleteIfExists(spill);
+            }
+        }
+    }
+
+    private long get(long i){
+        int p = (int) (i >>> pageBits);
+        int o = (int) (i & (pageSize - 1));
+        return (heap != null)? heap[p][o] : direct[p].get(o);
+    }
+
+    public boolean contains(String name){
+        return this.contains(fingerprint(name));
+    }
+
+    public boolean contains(long fingerprint){
+        if(page != null)
+            throw new IllegalStateException("Read name set must be sealed before lookups!");
+        long lo = 0, hi = size - 1;
+        int steps = 0;
+        while(lo <= hi){
+            long a = get(lo), b = get(hi);
+            if(fingerprint < a || fingerprint > b)
+                return false;
+            long mid;
+            if(a == b || steps++ > 8){
+                // Plain bisection if interpolation has not converged
+                mid = (lo + hi) >>> 1;
+            }else{
+                mid = lo + (long) (((double) fingerprint - a) / ((double) b - a) * (hi - lo));
+                mid = Math.max(lo, Math.min(hi, mid));
+            }
+            long v = get(mid);
+            if(v == fingerprint)
+                return true;
+            if(v < fingerprint)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return false;
+    }
+
+    /*
+     * A read position in one sorted page, either in the temp file or in memory
+     */
+    private static class Run{
+        private final FileChannel channel;
+        private final long[] values;
+        private final ByteBuffer buffer;
+        private long position;
+        private long remaining;
+        private int index = 0;
+        public long head;
+
+        public Run(FileChannel channel, long position, long count){
+            this.channel = channel;
+            this.values = null;
+            this.buffer = ByteBuffer.allocate(IO_BUFFER);
+            this.buffer.limit(0);
+            this.position = position;
+            this.remaining = count;
+        }
+
+        public Run(long[] values, int count){
+            this.channel = null;
+            this.values = values;
+            this.buffer = null;
+            this.remaining = count;
+        }
+
+        public boolean advance() throws IOException{
+            if(remaining == 0)
+                return false;
+            if(values != null){
+                head = values[index++];
+            }else{
+                if(!buffer.hasRemaining()){
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), remaining * 8));
+                    while(buffer.hasRemaining()){
+                        int n = channel.read(buffer, position);
+                        if(n < 0)
+                            throw new EOFException("Truncated read name page file!");
+                        position += n;
+                    }
+                    buffer.flip();
+                }
+                head = buffer.getLong();
+            }
+            remaining--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Holds many small records as encoded bytes packed into large slabs, with a
+ * primitive index of where each record starts. Records use the temp run
+ * encoding of FastqFileQuickSort: a varint column count, then the varint length
+ * and bytes of each column. Sorting sorts the index; record bytes never move,
+ * and a sorted chunk is written out as one copy per record.
+ * @author dbickhart
+ */
+public class RecordArena {
+    // Index bytes held per record: its slab address, its place in the order and merge scratch space
+    public static final int INDEX_BYTES = 16;
+    // Extra bytes per record while a radix sort runs: the packed keys and their scratch copy
+    public static final int RADIX_BYTES = 16;
+    // Below this many records a sort is not split between threads
+    private static final int PARALLEL_SORT = 1 << 13;
+    private final int slabSize;
+    private final List<byte[]> slabs = new ArrayList<>();
+    private byte[] slab = null;
+    private int slabUsed = 0;
+    private long slabBytes = 0;
+    // Slab number in the high half, offset in the low half
+    private long[] addresses = new long[1024];
+    private int[] order = null;
+    private int count = 0;
+
+    public RecordArena(int slabSize){
+        this.slabSize = Math.max(1024, slabSize);
+    }
+
+    /**
+     * Copies the four trimmed lines of the current fastq record into the arena
+     * @param reader
+     */
+    public void add(FastqRecordReader reader){
+        int size = varintSize(4);
+        for(int l = 0; l < 4; l++){
+            int len = reader.getLineEnd(l) - reader.getLineStart(l);
+            size += varintSize(len) + len;
+        }
+        int off = reserve(size);
+        off = putVarint(slab, off, 4);
+        byte[] record = reader.getRecord();
+        for(int l = 0; l < 4; l++){
+            int len = reader.getLineEnd(l) - reader.getLineStart(l);
+            off = putVarint(slab, off, len);
+            System.arraycopy(record, reader.getLineStart(l), slab, off, len);
+            off += len;
+        }
+    }
+
+    /*
+    * Finds room for a record and indexes it; the record is written to the current slab from the returned offset
+    */
+    private int reserve(int size){
+        if(slab == null || slab.length - slabUsed < size){
+            slab = new byte[Math.max(slabSize, size)];
+            slabs.add(slab);
+            slabUsed = 0;
+            slabBytes += slab.length;
+        }
+        if(count == addresses.length)
+            addresses = Arrays.copyOf(addresses, count * 2);
+        addresses[count++] = ((long) (slabs.size() - 1) << 32) | slabUsed;
+        int off = slabUsed;
+        slabUsed += size;
+        return off;
+    }
+
+    public int size(){
+        return this.count;
+    }
+
+    /**
+     * @return the heap taken by the slabs and the index
+     */
+    public long heapBytes(){
+        return slabBytes + (long) count * INDEX_BYTES;
+    }
+
+    /**
+     * Sorts on the bytes of the given columns, then on the first column. Unsigned
+     * UTF-8 byte order is the same as String order outside of surrogate pairs
+     * @param colOrder
+     */
+    public void sort(int[] colOrder){
+        byte[][] s = slabs.toArray(new byte[slabs.size()][]);
+        sortOrder(columnOrder(s, colOrder));
+    }
+
+    private IntBinaryOperator columnOrder(byte[][] s, int[] colOrder){
+        return (a, b) -> {
+            for(int col : colOrder){
+                int c = compareColumn(s, addresses[a], addresses[b], col);
+                if(c != 0)
+                    return c;
+            }
+            return compareColumn(s, addresses[a], addresses[b], 0);
+        };
+    }
+
+    /**
+     * Sorts in the same order as sort(colOrder), but by a radix sort of 8 byte keys from the first sort
+     * column. Read names share long prefixes, so each key is taken after the prefix common to the whole
+     * chunk. Only records with equal keys are compared in full
+     * @param colOrder
+     */
+    public void radixSort(int[] colOrder){
+        byte[][] s = slabs.toArray(new byte[slabs.size()][]);
+        int keyCol = (colOrder.length > 0)? colOrder[0] : 0;
+        order = new int[count];
+        if(count < 2){
+            for(int i = 0; i < count; i++)
+                order[i] = i;
+            return;
+        }
+
+        // Bytes of the key column shared by every record
+        long first = locate(s[(int) (addresses[0] >>> 32)], (int) addresses[0], keyCol);
+        byte[] ref = s[(int) (addresses[0] >>> 32)];
+        int refStart = (int) (first >>> 32);
+        int prefix = (int) first;
+        for(int i = 1; i < count && prefix > 0; i++){
+            byte[] b = s[(int) (addresses[i] >>> 32)];
+            long loc = locate(b, (int) addresses[i], keyCol);
+            int start = (int) (loc >>> 32);
+            int len = Math.min(prefix, (int) loc);
+            int p = 0;
+            while(p < len && b[start + p] == ref[refStart + p])
+                p++;
+            prefix = p;
+        }
+
+        // Big endian, zero padded, so unsigned key order is byte order
+        long[] keys = new long[count];
+        for(int i = 0; i < count; i++){
+            byte[] b = s[(int) (addresses[i] >>> 32)];
+            long loc = locate(b, (int) addresses[i], keyCol);
+            int start = (int) (loc >>> 32) + prefix;
+            int len = Math.min(8, (int) loc - prefix);
+            long key = 0;
+            for(int k = 0; k < 8; k++)
+                key = (key << 8) | ((k < len)? (b[start + k] & 0xff) : 0);
+            keys[i] = key;
+            order[i] = i;
+        }
+        radixSort(keys, order);
+
+        // Records with equal keys keep their input order, so a stable sort of each tie completes the order
+        IntBinaryOperator compare = columnOrder(s, colOrder);
+        int[] tmp = null;
+        for(int lo = 0; lo < count;){
+            int hi = lo + 1;
+            while(hi < count && keys[hi] == keys[lo])
+                hi++;
+            if(hi - lo > 1){
+                if(tmp == null)
+                    tmp = new int[count];
+                new MergeSort(order, tmp, lo, hi, compare).compute();
+            }
+            lo = hi;
+        }
+    }
+
+    /*
+    * Least significant byte first radix sort of unsigned keys, carrying the record numbers along.
+    * Bytes that are the same in every key are skipped
+    */
+    private static void radixSort(long[] keys, int[] values){
+        int n = keys.length;
+        int[][] counts = new int[8][256];
+        for(long k : keys){
+            for(int b = 0; b < 8; b++)
+                counts[b][(int) (k >>> (8 * b)) & 0xff]++;
+        }
+        long[] fromKeys = keys, toKeys = new long[n];
+        int[] fromValues = values, toValues = new int[n];
+        for(int b = 0; b < 8; b++){
+            int[] c = counts[b];
+            if(c[(int) (keys[0] >>> (8 * b)) & 0xff] == n)
+                continue;
+            int sum = 0;
+            for(int i = 0; i < 256; i++){
+                int t = c[i];
+                c[i] = sum;
+                sum += t;
+            }
+            for(int i = 0; i < n; i++){
+                int p = c[(int) (fromKeys[i] >>> (8 * b)) & 0xff]++;
+                toKeys[p] = fromKeys[i];
+                toValues[p] = fromValues[i];
+            }
+            long[] k = fromKeys;
+            fromKeys = toKeys;
+            toKeys = k;
+            int[] v = fromValues;
+            fromValues = toValues;
+            toValues = v;
+        }
+        if(fromKeys != keys){
+            System.arraycopy(fromKeys, 0, keys, 0, n);
+            System.arraycopy(fromValues, 0, values, 0, n);
+        }
+    }
+
+    /**
+     * Sorts with a String comparator; each record is decoded once before the sort
+     * @param comparator
+     */
+    public void sort(Comparator<String[]> comparator){
+        String[][] columns = new String[count][];
+        for(int i = 0; i < count; i++)
+            columns[i] = getColumns(i);
+        sortOrder((a, b) -> comparator.compare(columns[a], columns[b]));
+    }
+
+    private void sortOrder(IntBinaryOperator compare){
+        order = new int[count];
+        for(int i = 0; i < count; i++)
+            order[i] = i;
+        ForkJoinPool.commonPool().invoke(new MergeSort(order, new int[count], 0, count, compare));
+    }
+
+    public String[] getColumns(int record){
+        byte[] s = slabs.get((int) (addresses[record] >>> 32));
+        int[] pos = new int[]{(int) addresses[record]};
+        String[] columns = new String[getVarint(s, pos)];
+        for(int c = 0; c < columns.length; c++){
+            int len = getVarint(s, pos);
+            columns[c] = new String(s, pos[0], len, StandardCharsets.UTF_8);
+            pos[0] += len;
+        }
+        return columns;
+    }
+
+    /**
+     * Writes each record, in sorted order if sorted, as its varint size then its bytes
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException{
+        int[] pos = new int[1];
+        for(int i = 0; i < count; i++){
+            long address = addresses[(order == null)? i : order[i]];
+            byte[] s = slabs.get((int) (address >>> 32));
+            int start = (int) address;
+            pos[0] = start;
+            int columns = getVarint(s, pos);
+            for(int c = 0; c < columns; c++){
+                int len = getVarint(s, pos);
+                pos[0] += len;
+            }
+            writeVarint(out, pos[0] - start);
+            out.write(s, start, pos[0] - start);
+        }
+    }
+
+    private static int compareColumn(byte[][] s, long a, long b, int col){
+        byte[] sa = s[(int) (a >>> 32)], sb = s[(int) (b >>> 32)];
+        long la = locate(sa, (int) a, col), lb = locate(sb, (int) b, col);
+        int as = (int) (la >>> 32), bs = (int) (lb >>> 32);
+        return compareBytes(sa, as, as + (int) la, sb, bs, bs + (int) lb);
+    }
+
+    /*
+    * Finds column col of the record at off; returns its start in the high half and its length in the low half
+    */
+    private static long locate(byte[] s, int off, int col){
+        int len = 0;
+        for(int c = -1; c <= col; c++){
+            off += len;
+            int shift = 0, b;
+            len = 0;
+            while(((b = s[off++]) & 0x80) != 0){
+                len |= (b & 0x7f) << shift;
+                shift += 7;
+            }
+            len |= b << shift;
+            // The first varint is the column count, not a length
+            if(c < 0)
+                len = 0;
+        }
+        return ((long) off << 32) | len;
+    }
+
+    public static int compareBytes(byte[] a, int as, int ae, byte[] b, int bs, int be){
+        int len = Math.min(ae - as, be - bs);
+        for(int i = 0; i < len; i++){
+            if(a[as + i] != b[bs + i])
+                return (a[as + i] & 0xff) - (b[bs + i] & 0xff);
+        }
+        return (ae - as) - (be - bs);
+    }
+
+    public static int varintSize(int v){
+        int size = 1;
+        while((v & ~0x7f) != 0){
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+
+    public static int putVarint(byte[] dest, int off, int v){
+        while((v & ~0x7f) != 0){
+            dest[off++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        dest[off++] = (byte) v;
+        return off;
+    }
+
+    public static void writeVarint(OutputStream out, int v) throws IOException{
+        while((v & ~0x7f) != 0){
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Reads a varint at pos[0] and moves pos[0] past it
+     */
+    public static int getVarint(byte[] src, int[] pos){
+        int v = 0, shift = 0, b;
+        while(((b = src[pos[0]++]) & 0x80) != 0){
+            v |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        return v | (b << shift);
+    }
+
+    /*
+    * Stable top down merge sort of record numbers, with large halves sorted in parallel
+    */
+    private static class MergeSort extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+        private final int[] a;
+        private final int[] tmp;
+        private final int lo;
+        private final int hi;
+        private final IntBinaryOperator compare;
+
+        public MergeSort(int[] a, int[] tmp, int lo, int hi, IntBinaryOperator compare){
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.compare = compare;
+        }
+
+        @Override
+        protected void compute() {
+            if(hi - lo < 32){
+                for(int i = lo + 1; i < hi; i++){
+                    int v = a[i], j = i - 1;
+                    while(j >= lo && compare.applyAsInt(a[j], v) > 0){
+                        a[j + 1] = a[j];
+                        j--;
+                    }
+                    a[j + 1] = v;
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            MergeSort left = new MergeSort(a, tmp, lo, mid, compare);
+            MergeSort right = new MergeSort(a, tmp, mid, hi, compare);
+            if(hi - lo > PARALLEL_SORT)
+                invokeAll(left, right);
+            else{
+                left.compute();
+                right.compute();
+            }
+            // Already in order
+            if(compare.applyAsInt(a[mid - 1], a[mid]) <= 0)
+                return;
+            System.arraycopy(a, lo, tmp, lo, hi - lo);
+            int i = lo, j = mid, k = lo;
+            while(i < mid && j < hi)
+                a[k++] = (compare.applyAsInt(tmp[j], tmp[i]) < 0)? tmp[j++] : tmp[i++];
+            while(i < mid)
+                a[k++] = tmp[i++];
+            while(j < hi)
+                a[k++] = tmp[j++];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table driven, in place reverse complement of ASCII nucleotide bytes.
+ * IUPAC ambiguity codes are complemented deterministically (R <-> Y, K <-> M,
+ * B <-> V, D <-> H; S, W and N are their own complements), soft-masked
+ * lower case is kept, U is treated as T, alignment gaps ('-', '.', '*') are
+ * left unchanged and every other byte becomes N.
+ * @author dbickhart
+ */
+public final class ReverseComplement {
+    private static final byte[] COMP = new byte[256];
+    // Direct buffers are copied through heap blocks of this size
+    private static final int BLOCK_SIZE = 8192;
+    static {
+        for(int i = 0; i < COMP.length; i++)
+            COMP[i] = 'N';
+        String fwd = "ACGTURYKMSWBVDHN";
+        String rev = "TGCAAYRMKSWVBHDN";
+        for(int i = 0; i < fwd.length(); i++){
+            COMP[fwd.charAt(i)] = (byte) rev.charAt(i);
+            COMP[Character.toLowerCase(fwd.charAt(i))] = (byte) Character.toLowerCase(rev.charAt(i));
+        }
+        COMP['-'] = '-';
+        COMP['.'] = '.';
+        COMP['*'] = '*';
+    }
+    private static final ThreadLocal<byte[][]> BLOCKS = ThreadLocal.withInitial(() -> new byte[][]{new byte[BLOCK_SIZE], new byte[BLOCK_SIZE]});
+
+    private ReverseComplement(){
+    }
+
+    public static byte complement(byte b){
+        return COMP[b & 0xff];
+    }
+
+    public static void complement(byte[] seq, int off, int len){
+        for(int i = off; i < off + len; i++)
+            seq[i] = COMP[seq[i] & 0xff];
+    }
+
+    public static void reverseComplement(byte[] seq){
+        reverseComplement(seq, 0, seq.length);
+    }
+
+    /**
+     * Reverse complements a range of an array in place
+     * @param seq the sequence bytes
+     * @param off start of the range
+     * @param len length of the range
+     */
+    public static void reverseComplement(byte[] seq, int off, int len){
+        int i = off, j = off + len - 1;
+        while(i < j){
+            byte t = COMP[seq[i] & 0xff];
+            seq[i++] = COMP[seq[j] & 0xff];
+            seq[j--] = t;
+        }
+        if(i == j)
+            seq[i] = COMP[seq[i] & 0xff];
+    }
+
+    /**
+     * Reverse complements the bytes between the buffer's position and limit in
+     * place. The position and limit are not changed.
+     * @param buf a heap or direct buffer
+     */
+    public static void reverseComplement(ByteBuffer buf){
+        int lo = buf.position(), hi = buf.limit();
+        if(buf.hasArray()){
+            reverseComplement(buf.array(), buf.arrayOffset() + lo, hi - lo);
+            return;
+        }
+        // Swap one block from each end at a time
+        byte[][] blocks = BLOCKS.get();
+        byte[] head = blocks[0], tail = blocks[1];
+        ByteBuffer view = buf.duplicate();
+        while(hi - lo > 0){
+            int n = Math.min(BLOCK_SIZE, (hi - lo) / 2);
+            if(n == 0){
+                // One byte left in the middle
+                buf.put(lo, COMP[buf.get(lo) & 0xff]);
+                break;
+            }
+            view.limit(lo + n).position(lo);
+            view.get(head, 0, n);
+            view.limit(hi).position(hi - n);
+            view.get(tail, 0, n);
+            reverseComplement(head, 0, n);
+            reverseComplement(tail, 0, n);
+            view.limit(lo + n).position(lo);
+            view.put(tail, 0, n);
+            view.limit(hi).position(hi - n);
+            view.put(head, 0, n);
+            lo += n;
+            hi -= n;
+        }
+    }
+
+    public static String reverseComplement(String seq){
+        byte[] bytes = new byte[seq.length()];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) seq.charAt(i);
+        reverseComplement(bytes, 0, bytes.length);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import gziputils.ReaderReturn;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the bases of a plain or gzipped fasta or four line fastq file in
+ * blocks of a fixed size, for k-mer counting. Headers, fastq quality lines and
+ * line breaks are dropped. Records are joined with an N so that no k-mer spans
+ * two of them, and each block after the first starts with the last k - 1 bytes
+ * of the one before, so that every k-mer of the file lies in exactly one block.
+ * @author dbickhart
+ */
+public class SequenceBlockReader implements AutoCloseable{
+    private static final byte SEPARATOR = 'N';
+    private final InputStream input;
+    private final String source;
+    private final int blockSize;
+    private final int overlap;
+    private final byte[] buffer = new byte[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+
+    private boolean fastq;
+    private boolean lineStart = true;
+    private boolean skip = false;
+    private long line = 0;
+    private byte[] last = null;
+    private int lastLength = 0;
+
+    public SequenceBlockReader(Path file, int k, int blockSize) throws IOException{
+        InputStream in = Files.newInputStream(file);
+        if(ReaderReturn.isGZipped(file.toFile()))
+            in = new GZIPInputStream(in, 1 << 16);
+        this.input = in;
+        this.source = file.toString();
+        this.overlap = k - 1;
+        this.blockSize = Math.max(blockSize, 2 * k);
+        readFormat();
+    }
+
+    private void readFormat() throws IOException{
+        if(!fill())
+            throw new IOException("Sequence file is empty: " + source);
+        if(buffer[0] == '>')
+            fastq = false;
+        else if(buffer[0] == '@')
+            fastq = true;
+        else
+            throw new IOException("Sequence file is not fasta or fastq: " + source);
+    }
+
+    private boolean fill() throws IOException{
+        int read = input.read(buffer);
+        while(read == 0)
+            read = input.read(buffer);
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    /**
+     * Reads the next block into a new array
+     * @return the block, filled up to its length, or null at the end of the file
+     * @throws IOException
+     */
+    public byte[] next() throws IOException{
+        byte[] block = new byte[blockSize];
+        int length = 0;
+        if(last != null && lastLength >= overlap){
+            System.arraycopy(last, lastLength - overlap, block, 0, overlap);
+            length = overlap;
+        }
+        int start = length;
+
+        while(length < blockSize){
+            if(pos == limit && !fill())
+                break;
+            byte b = buffer[pos++];
+            if(b == '\n'){
+                if(fastq)
+                    line++;
+                lineStart = true;
+                continue;
+            }
+            if(lineStart){
+                lineStart = false;
+                boolean header = (fastq)? (line & 3) == 0 : b == '>';
+                skip = (fastq)? (line & 3) != 1 : header;
+                // Header lines are always skipped, so the separator never overfills the block
+                if(header && length > 0)
+                    block[length++] = SEPARATOR;
+            }
+            if(skip || b == '\r')
+                continue;
+            block[length++] = b;
+        }
+
+        if(length == start)
+            return null;
+        last = block;
+        lastLength = length;
+        return (length == blockSize)? block : Arrays.copyOf(block, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
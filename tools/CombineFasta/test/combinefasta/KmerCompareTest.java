@@ -0,0 +1,106 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utils.KmerIntersection;
+import utils.KmerTable;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class KmerCompareTest {
+
+    public KmerCompareTest() {
+    }
+
+    private static String random(Random rand, int length){
+        StringBuilder sb = new StringBuilder(length);
+        for(int i = 0; i < length; i++)
+            sb.append("ACGT".charAt(rand.nextInt(4)));
+        return sb.toString();
+    }
+
+    @Test
+    public void testCompare() throws IOException {
+        Random rand = new Random(5);
+        String[] contigs = {random(rand, 5000), random(rand, 3000), random(rand, 2000)};
+        // A repeat, so that some k-mers have more than one copy
+        contigs[2] = contigs[2] + contigs[0].substring(100, 600) + contigs[0].substring(100, 600);
+        String foreign = random(rand, 1000);
+
+        Path dir = Files.createTempDirectory("kmercompare");
+        Path asm = dir.resolve("asm.fa");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(asm))){
+            for(int i = 0; i < contigs.length; i++)
+                out.print(">contig" + i + "\n" + contigs[i] + "\n");
+        }
+        String[] reads = new String[3000];
+        for(int i = 0; i < reads.length; i++){
+            String source = (i % 10 == 0)? foreign : contigs[rand.nextInt(2)];
+            int start = rand.nextInt(source.length() - 100);
+            char[] read = source.substring(start, start + 100).toCharArray();
+            // Sequencing errors give read-only k-mers seen once
+            if(rand.nextInt(4) == 0)
+                read[rand.nextInt(100)] = 'A';
+            reads[i] = new String(read);
+        }
+        Path fastq = dir.resolve("reads.fq");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(fastq))){
+            for(int i = 0; i < reads.length; i++)
+                out.print("@read" + i + "\n" + reads[i] + "\n+\n" + reads[i].replaceAll(".", "I") + "\n");
+        }
+
+        int k = 21;
+        KmerTable asmTable = new KmerTable();
+        for(String c : contigs)
+            KmerIntersection.countKmers(c.getBytes(), 0, c.length(), k, asmTable);
+        KmerTable readTable = new KmerTable();
+        for(String r : reads)
+            KmerIntersection.countKmers(r.getBytes(), 0, r.length(), k, readTable);
+        long[][] expected = new long[KmerCount.HISTO_MAX + 1][KmerCompare.COPIES + 1];
+        long[] solid = new long[2];
+        asmTable.forEach((kmer, copies) -> expected[readTable.get(kmer)][Math.min(copies, KmerCompare.COPIES)]++);
+        readTable.forEach((kmer, count) -> {
+            if(asmTable.get(kmer) == 0)
+                expected[count][0]++;
+            if(count >= 2){
+                solid[0]++;
+                if(asmTable.get(kmer) > 0)
+                    solid[1]++;
+            }
+        });
+
+        Path base = dir.resolve("test");
+        KmerCompare compare = new KmerCompare(asm, fastq, base.toString(), k, 2);
+        // Tiny blocks and budget so that every input is spilled as several runs
+        compare.setBlockSize(2000);
+        compare.setMemoryBudget(1);
+        // A small fan in so that the runs of each shard take several merge passes
+        compare.setMaximumFanIn(3);
+        compare.run();
+
+        for(int r = 0; r < expected.length; r++)
+            assertArrayEquals("Read count " + r, expected[r], compare.getSpectra()[r]);
+        assertTrue(compare.assemblyOnly() > 0);
+        assertTrue(compare.readOnly() > 0);
+        assertTrue(compare.shared() > 0);
+        assertEquals(100.0 * solid[1] / solid[0], compare.completeness(), 1e-9);
+        assertTrue(compare.qv() > 0);
+        assertEquals(6, Files.readAllLines(base.resolveSibling("test.summary")).size());
+
+        for(Path p : new Path[]{asm, fastq, base.resolveSibling("test.spectra"), base.resolveSibling("test.summary")})
+            Files.delete(p);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import utils.KmerIntersection;
+import utils.KmerTable;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class KmerCountTest {
+
+    public KmerCountTest() {
+    }
+
+    private static String[] randomSequences(int count, int length, long seed){
+        Random rand = new Random(seed);
+        String alphabet = "ACGTACGTACGTacgtN";
+        String[] seqs = new String[count];
+        for(int i = 0; i < count; i++){
+            StringBuilder sb = new StringBuilder(length);
+            for(int j = 0; j < length; j++)
+                sb.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+            seqs[i] = sb.toString();
+        }
+        return seqs;
+    }
+
+    private static KmerTable expected(String[] seqs, int k){
+        KmerTable table = new KmerTable();
+        for(String s : seqs)
+            KmerIntersection.countKmers(s.getBytes(), 0, s.length(), k, table);
+        return table;
+    }
+
+    private static void check(KmerCount counter, KmerTable expected, Path base) throws IOException{
+        long[] total = new long[1];
+        expected.forEach((kmer, count) -> {
+            assertEquals(count, counter.get(kmer));
+            total[0] += count;
+        });
+        assertEquals(expected.size(), counter.distinct());
+        assertEquals(total[0], counter.total());
+
+        KmerTable read = KmerCount.readDatabase(base.resolveSibling(base.getFileName() + ".kdb"));
+        assertEquals(expected.size(), read.size());
+        expected.forEach((kmer, count) -> assertEquals(count, read.get(kmer)));
+
+        long kmers = 0;
+        List<String> histo = Files.readAllLines(base.resolveSibling(base.getFileName() + ".histo"));
+        for(String line : histo)
+            kmers += Long.parseLong(line.split("\t")[1]);
+        assertEquals(expected.size(), kmers);
+    }
+
+    @Test
+    public void testFasta() throws IOException {
+        Path dir = Files.createTempDirectory("kmercount");
+        String[] seqs = randomSequences(5, 3000, 1);
+        Path fasta = dir.resolve("test.fa");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(fasta))){
+            for(int i = 0; i < seqs.length; i++){
+                out.print(">seq" + i + "\r\n");
+                for(int j = 0; j < seqs[i].length(); j += 60)
+                    out.print(seqs[i].substring(j, Math.min(seqs[i].length(), j + 60)) + "\r\n");
+            }
+        }
+
+        Path base = dir.resolve("test");
+        for(int k : new int[]{5, 21, 31}){
+            // Small blocks so that k-mers span block boundaries
+            KmerCount counter = new KmerCount(fasta, base.toString(), k, 3);
+            counter.setBlockSize(500);
+            counter.run();
+            check(counter, expected(seqs, k), base);
+        }
+        for(Path p : new Path[]{fasta, base.resolveSibling("test.kdb"), base.resolveSibling("test.histo")})
+            Files.delete(p);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testGzippedFastq() throws IOException {
+        Path dir = Files.createTempDirectory("kmercount");
+        String[] seqs = randomSequences(2000, 150, 2);
+        Path fastq = dir.resolve("test.fq.gz");
+        try(OutputStream gz = new GZIPOutputStream(Files.newOutputStream(fastq));
+                PrintStream out = new PrintStream(gz)){
+            for(int i = 0; i < seqs.length; i++){
+                out.print("@read" + i + "\n" + seqs[i] + "\n+\n");
+                // Quality lines may start with @ or hold bases
+                for(int j = 0; j < seqs[i].length(); j++)
+                    out.print((j % 2 == 0)? '@' : 'A');
+                out.print("\n");
+            }
+        }
+
+        Path base = dir.resolve("test");
+        KmerCount counter = new KmerCount(fastq, base.toString(), 21, 2);
+        counter.setBlockSize(10000);
+        counter.run();
+        check(counter, expected(seqs, 21), base);
+        for(Path p : new Path[]{fastq, base.resolveSibling("test.kdb"), base.resolveSibling("test.histo")})
+            Files.delete(p);
+        Files.delete(dir);
+    }
+
+    private static KmerCount spilled(Path input, Path dir, String base, long budget) throws InterruptedException{
+        KmerCount counter = new KmerCount(input, dir.resolve(base).toString(), 21, 1);
+        counter.setBlockSize(1000);
+        counter.setSpill(dir, budget);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        assertTrue(counter.count(executor));
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return counter;
+    }
+
+    @Test
+    public void testSpillBudget() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("kmercount");
+        String[] seqs = randomSequences(200, 150, 3);
+        Path fastq = dir.resolve("test.fq");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(fastq))){
+            for(int i = 0; i < seqs.length; i++)
+                out.print("@read" + i + "\n" + seqs[i] + "\n+\n" + seqs[i].replaceAll(".", "I") + "\n");
+        }
+        KmerTable expected = expected(seqs, 21);
+
+        // Many rounds, but all of the k-mers fit in the budget, so each shard is written out once at the end
+        KmerCount counter = spilled(fastq, dir, "all", 1L << 30);
+        for(int s = 0; s < counter.getShards(); s++)
+            assertEquals(1, counter.getRuns(s).size());
+
+        // Tables that hold about a fifth of the k-mers spill a few times, not every round
+        counter = spilled(fastq, dir, "part", expected.size() * 32L / 5);
+        int runs = counter.getRuns(0).size();
+        assertTrue(runs >= 3 && runs <= 10);
+        long[] spilled = new long[1];
+        for(int s = 0; s < counter.getShards(); s++){
+            for(Path run : counter.getRuns(s))
+                spilled[0] += Files.size(run) / 12;
+        }
+        // Each run holds a k-mer once, so the runs hold at least every distinct k-mer
+        assertTrue(spilled[0] >= expected.size());
+        counter.release();
+
+        for(File f : dir.toFile().listFiles())
+            f.delete();
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class MergeJoinPairTest {
+    private static final int PAIRS = 2000;
+    private Path dir;
+
+    public MergeJoinPairTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mergejoin");
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.toFile().listFiles())
+            f.delete();
+        dir.toFile().delete();
+    }
+
+    private static void writeReads(Path file, List<String> names) throws IOException{
+        try(BufferedWriter writer = Files.newBufferedWriter(file, Charset.defaultCharset())){
+            for(String n : names){
+                writer.write("@" + n);
+                writer.newLine();
+                writer.write("ACGTACGTACGTACGTACGT");
+                writer.newLine();
+                writer.write("+");
+                writer.newLine();
+                writer.write("EEEEEEEEEEEEEEEEEEEE");
+                writer.newLine();
+            }
+        }
+    }
+
+    private static List<String> names(){
+        List<String> names = new ArrayList<>(PAIRS);
+        for(int i = 0; i < PAIRS; i++)
+            names.add("read" + i);
+        return names;
+    }
+
+    /**
+     * Test of run method, with locally swapped mates and an orphan on each side.
+     */
+    @Test
+    public void testSwappedMates() throws IOException {
+        List<String> first = names();
+        List<String> second = names();
+        // Swap 2% of the reverse reads with their neighbour
+        for(int i = 0; i < PAIRS; i += 50)
+            Collections.swap(second, i, i + 1);
+        first.add(PAIRS / 2, "orphanF");
+        second.add(PAIRS / 3, "orphanR");
+        writeReads(dir.resolve("r1.fq"), first);
+        writeReads(dir.resolve("r2.fq"), second);
+
+        assertTrue(MergeJoinPair.isMateOrdered(dir.resolve("r1.fq"), dir.resolve("r2.fq")));
+        String outbase = dir.resolve("out").toString();
+        assertTrue(new MergeJoinPair(dir.resolve("r1.fq"), dir.resolve("r2.fq"), outbase).run());
+        checkSwappedMates();
+        // A short window ages the orphans out as names, and the swapped pairs still fit in it
+        assertTrue(new MergeJoinPair(dir.resolve("r1.fq"), dir.resolve("r2.fq"), outbase, 10).run());
+        checkSwappedMates();
+    }
+
+    private void checkSwappedMates() throws IOException {
+        List<String> out1 = Files.readAllLines(dir.resolve("out.1.fastq"));
+        List<String> out2 = Files.readAllLines(dir.resolve("out.2.fastq"));
+        assertEquals(PAIRS * 4, out1.size());
+        assertEquals(PAIRS * 4, out2.size());
+        HashSet<String> written = new HashSet<>();
+        for(int i = 0; i < out1.size(); i += 4){
+            assertEquals(out1.get(i), out2.get(i));
+            written.add(out1.get(i));
+        }
+        assertEquals(PAIRS, written.size());
+
+        List<String> orphans = Files.readAllLines(dir.resolve("out.orphans"));
+        assertEquals(2, orphans.size());
+        assertTrue(orphans.contains("@orphanF"));
+        assertTrue(orphans.contains("@orphanR"));
+    }
+
+    /**
+     * Test that a window too small for the mate order gives up rather than lose pairs.
+     */
+    @Test
+    public void testWindowEviction() throws IOException {
+        List<String> first = names();
+        List<String> second = names();
+        Collections.reverse(second);
+        writeReads(dir.resolve("r1.fq"), first);
+        writeReads(dir.resolve("r2.fq"), second);
+
+        String outbase = dir.resolve("out").toString();
+        assertFalse(new MergeJoinPair(dir.resolve("r1.fq"), dir.resolve("r2.fq"), outbase, 100).run());
+        assertFalse(dir.resolve("out.orphans").toFile().exists());
+        // A window that holds the whole file pairs every read
+        assertTrue(new MergeJoinPair(dir.resolve("r1.fq"), dir.resolve("r2.fq"), outbase, PAIRS).run());
+        assertEquals(PAIRS * 4, Files.readAllLines(dir.resolve("out.1.fastq")).size());
+        assertEquals(0, Files.readAllLines(dir.resolve("out.orphans")).size());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class OrderBatchTest {
+    private Path dir;
+
+    public OrderBatchTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("orderbatch");
+        write("a.fa", ">a", "ACGTACGTAC");
+        write("b.fa", ">b", "GGGCCC");
+        write("one.list", path("a.fa") + "\t+", path("b.fa") + "\t-");
+        write("two.list", path("b.fa") + "\t+");
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.toFile().listFiles())
+            f.delete();
+        dir.toFile().delete();
+    }
+
+    private String path(String name){
+        return dir.resolve(name).toString();
+    }
+
+    private void write(String name, String... lines) throws IOException{
+        Files.write(dir.resolve(name), Arrays.asList(lines), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testCombined() throws IOException {
+        write("manifest", path("one.list") + "\t" + path("one.fa") + "\t2\tone",
+                path("two.list") + "\t" + path("two.fa") + "\t0\ttwo");
+        OrderBatch batch = new OrderBatch(path("manifest"), 2, path("all.fa"));
+        assertTrue(batch.run());
+
+        byte[] one = Files.readAllBytes(dir.resolve("one.fa"));
+        byte[] two = Files.readAllBytes(dir.resolve("two.fa"));
+        byte[] all = Files.readAllBytes(dir.resolve("all.fa"));
+        assertEquals(">one", new String(one).split("\\R")[0]);
+        assertTrue(new String(one).contains("ACGTACGTACNNGGGCCC"));
+        assertEquals(new String(one) + new String(two), new String(all));
+    }
+
+    @Test
+    public void testFailedJob() throws IOException {
+        // The second job writes into a directory that does not exist
+        write("manifest", path("one.list") + "\t" + path("one.fa") + "\t2",
+                path("two.list") + "\t" + path("missing/two.fa") + "\t0");
+        OrderBatch batch = new OrderBatch(path("manifest"), 2, path("all.fa"));
+        assertFalse(batch.run());
+        assertFalse(dir.resolve("all.fa").toFile().exists());
+
+        // A list naming a fasta that does not exist
+        write("bad.list", path("nothere.fa") + "\t+");
+        write("manifest", path("bad.list") + "\t" + path("bad.fa") + "\t0");
+        assertFalse(new OrderBatch(path("manifest"), 1, path("all.fa")).run());
+        assertFalse(dir.resolve("all.fa").toFile().exists());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class OrderTest {
+    private final static String[] firstFasta = {
+        ">contig_1",
+        "ACGTACGTAC",
+        "GTAC"
+    };
+
+    private final static String[] secondFasta = {
+        ">contig_2 some description",
+        "AACCG",
+        "GTTNa",
+        ">contig_3",
+        "GGGGGGGGGG"
+    };
+
+    private final static String firstFile = "test.order.1.fa";
+    private final static String secondFile = "test.order.2.fa";
+    private final static String orderList = "test.order.list";
+    private final static String outFile = "test.order.out.fa";
+    private final static String regionFasta = "test.order.region.fa";
+    private final static String regionList = "test.order.region.list";
+    private final static String regionOut = "test.order.region.out.fa";
+    private final static String chrA = "ACGTTGCAAC" + "GGNNNTTACA" + "CCGTA";
+    private final static String chrC = "TTTTGGGGCCAA";
+
+    private static void WriteOut(String[] data, String fileName){
+        Path output = Paths.get(fileName);
+        output.toFile().deleteOnExit();
+        try(BufferedWriter writer = Files.newBufferedWriter(output, Charset.defaultCharset())){
+            for(String d : data){
+                writer.write(d);
+                writer.write(System.lineSeparator());
+            }
+        }catch(IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    public OrderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        WriteOut(firstFasta, firstFile);
+        WriteOut(secondFasta, secondFile);
+        WriteOut(new String[]{firstFile + "\t+", secondFile + "\t-"}, orderList);
+        Paths.get(outFile).toFile().deleteOnExit();
+
+        // Ten bases a line, with LF line ends so that the .fai offsets are known
+        try{
+            Files.write(Paths.get(regionFasta), (">chrA\n" + chrA.substring(0, 10) + "\n" + chrA.substring(10, 20) + "\n"
+                    + chrA.substring(20) + "\n>chrC\n" + chrC.substring(0, 10) + "\n" + chrC.substring(10) + "\n").getBytes());
+            Files.write(Paths.get(regionFasta + ".fai"), ("chrA\t25\t6\t10\t11\nchrC\t12\t40\t10\t11\n").getBytes());
+        }catch(IOException ex){
+            ex.printStackTrace();
+        }
+        Paths.get(regionFasta).toFile().deleteOnExit();
+        Paths.get(regionFasta + ".fai").toFile().deleteOnExit();
+        // A region, a whole reversed contig and a region whose end runs past the contig
+        WriteOut(new String[]{regionFasta + "\tchrA:3-16\t+", regionFasta + "\tchrC\t-", regionFasta + "\tchrA:20-1,000\t+"}, regionList);
+        Paths.get(regionOut).toFile().deleteOnExit();
+    }
+
+    private static String readSequence(String file) throws IOException{
+        List<String> lines = Files.readAllLines(Paths.get(file), Charset.defaultCharset());
+        StringBuilder seq = new StringBuilder();
+        for(int x = 1; x < lines.size(); x++)
+            seq.append(lines.get(x));
+        return seq.toString();
+    }
+
+    /**
+     * Test of GenerateFasta method, of class Order.
+     */
+    @Test
+    public void testGenerateFasta() throws IOException {
+        Order order = new Order(orderList, outFile, 3, "joined");
+        order.GenerateFasta();
+
+        List<String> lines = Files.readAllLines(Paths.get(outFile), Charset.defaultCharset());
+        assertEquals(">joined", lines.get(0));
+        StringBuilder seq = new StringBuilder();
+        for(int x = 1; x < lines.size(); x++){
+            assertTrue(lines.get(x).length() <= 60);
+            seq.append(lines.get(x));
+        }
+        // Only the first entry of the second file is used, and it is reverse complemented with its soft-masking kept
+        assertEquals("ACGTACGTACGTAC" + "NNN" + "tNAACCGGTT", seq.toString());
+    }
+
+    /**
+     * Test of region inputs resolved through the source's .fai
+     */
+    @Test
+    public void testRegions() throws IOException {
+        Order order = new Order(regionList, regionOut, 5, "scaffold_1");
+        order.GenerateFasta();
+        assertTrue(order.isComplete());
+        assertEquals("GTTGCAACGGNNNT" + "NNNNN" + "TTGGCCCCAAAA" + "NNNNN" + "ACCGTA", readSequence(regionOut));
+    }
+
+    /**
+     * Test of the .fai, gap bed and AGP written alongside the fasta
+     */
+    @Test
+    public void testSideOutputs() throws IOException {
+        String out = "test.order.side.fa";
+        String gaps = "test.order.side.gaps.bed";
+        String agp = "test.order.side.agp";
+        for(String f : new String[]{out, out + ".fai", gaps, agp})
+            Paths.get(f).toFile().deleteOnExit();
+
+        Order order = new Order(regionList, out, 5, "scaffold_1 with a description");
+        order.setSideOutputs(true, gaps, agp);
+        order.GenerateFasta();
+        assertTrue(order.isComplete());
+
+        int nl = System.lineSeparator().length();
+        long offset = ">scaffold_1 with a description".length() + nl;
+        // The scaffold is shorter than one line, so its line length is its own length, as samtools writes it
+        assertEquals(Arrays.asList("scaffold_1\t42\t" + offset + "\t42\t" + (42 + nl)),
+                Files.readAllLines(Paths.get(out + ".fai")));
+        // The three base N run of chrA and both padding runs
+        assertEquals(Arrays.asList("scaffold_1\t10\t13", "scaffold_1\t14\t19", "scaffold_1\t31\t36"),
+                Files.readAllLines(Paths.get(gaps)));
+        assertEquals(Arrays.asList(
+                "scaffold_1\t1\t14\t1\tW\tchrA\t3\t16\t+",
+                "scaffold_1\t15\t19\t2\tN\t5\tscaffold\tyes\tmap",
+                "scaffold_1\t20\t31\t3\tW\tchrC\t1\t12\t-",
+                "scaffold_1\t32\t36\t4\tN\t5\tscaffold\tyes\tmap",
+                "scaffold_1\t37\t42\t5\tW\tchrA\t20\t25\t+"),
+                Files.readAllLines(Paths.get(agp)));
+
+        // The index offset points at the first base
+        byte[] fasta = Files.readAllBytes(Paths.get(out));
+        assertEquals("GTTGCAACGG", new String(fasta, (int) offset, 10));
+    }
+
+}
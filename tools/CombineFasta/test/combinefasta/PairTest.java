@@ -11,6 +11,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -47,11 +48,25 @@ public class PairTest {
         "#AAAAEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEEE",
     };
     
+    // Headers without a description, as written by many read simulators and SRA dumps
+    private final static String[] firstPlain = {
+        "@read3", "ACGTACGTAC", "+", "EEEEEEEEEE",
+        "@read1", "CCCCGGGGAA", "+", "EEEEEEEEEE",
+        "@read2", "TTTTAAAACC", "+", "EEEEEEEEEE",
+    };
+    
+    private final static String[] secondPlain = {
+        "@read2", "GGTTTTAAAA", "+", "EEEEEEEEEE",
+        "@read4", "ACGTACGTAC", "+", "EEEEEEEEEE",
+        "@read1", "TTCCCCGGGG", "+", "EEEEEEEEEE",
+        "@read3", "GTACGTACGT", "+", "EEEEEEEEEE",
+    };
+    
     private final static String forwardFile = "test.1.fq";
     private final static String reverseFile = "test.2.fq";
     private final static String outBase = "test.sorted";
-    private final static String expectedFor = "test.sorted.1.fq";
-    private final static String expectedRev = "test.sorted.2.fq";
+    private final static String expectedFor = "test.sorted.1.fastq";
+    private final static String expectedRev = "test.sorted.2.fastq";
     
     private static void WriteOut(String[] data, String fileName){
         Path output = Paths.get(fileName);
@@ -73,6 +88,8 @@ public class PairTest {
     public static void setUpClass() {
         WriteOut(firstFile, forwardFile);
         WriteOut(secondFile, reverseFile);
+        WriteOut(firstPlain, "test.plain.1.fq");
+        WriteOut(secondPlain, "test.plain.2.fq");
     }
     
     @AfterClass
@@ -83,12 +100,60 @@ public class PairTest {
      * Test of run method, of class Pair.
      */
     @Test
-    public void testRun() {
+    public void testRun() throws IOException {
+        
+        Pair pair = new Pair(forwardFile, reverseFile, outBase, 2);
+        pair.run();
+        assertTrue(Paths.get(expectedFor).toFile().canRead());
+        assertTrue(Paths.get(expectedRev).toFile().canRead());
+        Paths.get(expectedFor).toFile().deleteOnExit();
+        Paths.get(expectedRev).toFile().deleteOnExit();
+        
+        // The 7604:1021 read has no mate and is dropped; the rest stay in step
+        List<String> first = Files.readAllLines(Paths.get(expectedFor));
+        List<String> second = Files.readAllLines(Paths.get(expectedRev));
+        assertEquals(8, first.size());
+        assertEquals(8, second.size());
+        for(int i = 0; i < first.size(); i += 4)
+            assertEquals(first.get(i).split(" ")[0], second.get(i).split(" ")[0]);
+    }
+    
+    /**
+     * Test of run method, of class Pair, when one input cannot be partitioned.
+     */
+    @Test
+    public void testRunMissingInput() throws IOException {
+        Pair pair = new Pair(forwardFile, "test.missing.2.fq", "test.missing", 2);
+        pair.setMateOrdered(false);
+        pair.run();
         
-        //Pair pair = new Pair(forwardFile, reverseFile, outBase);
-        //pair.run();
-        //assertTrue(Paths.get(expectedFor).toFile().canRead());
-        //assertTrue(Paths.get(expectedRev).toFile().canRead());
+        // The forward file was split, but the failed reverse split must not leave partial pairs behind
+        assertFalse(Paths.get("test.missing.1.fastq").toFile().exists());
+        assertFalse(Paths.get("test.missing.2.fastq").toFile().exists());
+    }
+    
+    /**
+     * Test of runSorted method, of class Pair, on headers with no description.
+     */
+    @Test
+    public void testRunSortedPlainHeaders() throws IOException {
+        Pair pair = new Pair("test.plain.1.fq", "test.plain.2.fq", "test.plain.sorted");
+        pair.runSorted();
+        Paths.get("test.plain.sorted.1.fastq").toFile().deleteOnExit();
+        Paths.get("test.plain.sorted.2.fastq").toFile().deleteOnExit();
+        
+        // read4 has no mate; the rest come out in name order
+        List<String> first = Files.readAllLines(Paths.get("test.plain.sorted.1.fastq"));
+        List<String> second = Files.readAllLines(Paths.get("test.plain.sorted.2.fastq"));
+        assertEquals(12, first.size());
+        assertEquals(12, second.size());
+        String[] names = {"@read1", "@read2", "@read3"};
+        for(int i = 0; i < names.length; i++){
+            assertEquals(names[i], first.get(i * 4));
+            assertEquals(names[i], second.get(i * 4));
+        }
+        assertEquals("CCCCGGGGAA", first.get(1));
+        assertEquals("TTCCCCGGGG", second.get(1));
     }
     
 }
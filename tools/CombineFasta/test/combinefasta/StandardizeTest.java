@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combinefasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class StandardizeTest {
+    // LF and CRLF records, an empty record, a header with a description and a line longer than the output width
+    private final static String input = ">chr1_pilon\n" + "ACGTACGTAC\nGTACGTACGT\nAAC\n"
+            + ">chr2_pilon some text\r\n" + "ccccggggtt\r\naaNNacgtAC\r\nGT\r\n"
+            + ">empty_pilon\n"
+            + ">chr4\n" + "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTTTTTT\n";
+    private Path dir;
+
+    public StandardizeTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("standardize");
+        Files.write(dir.resolve("in.fa"), input.getBytes(StandardCharsets.US_ASCII));
+        Files.write(dir.resolve("in.fa.fai"), index(input).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.toFile().listFiles())
+            f.delete();
+        dir.toFile().delete();
+    }
+
+    // A samtools style index of the test input
+    private static String index(String fasta){
+        StringBuilder fai = new StringBuilder();
+        int pos = 0;
+        while(pos < fasta.length()){
+            int headEnd = fasta.indexOf('\n', pos);
+            String name = fasta.substring(pos + 1, headEnd).trim().split("\\s+")[0];
+            int start = headEnd + 1;
+            int next = fasta.indexOf("\n>", headEnd);
+            int end = (next < 0)? fasta.length() : next + 1;
+            String seq = fasta.substring(start, end);
+            int firstLine = seq.indexOf('\n');
+            int lineLen = (firstLine < 0)? 0 : firstLine + 1;
+            int lineBases = (firstLine < 0)? 0 : seq.substring(0, firstLine).replace("\r", "").length();
+            int length = seq.replace("\r", "").replace("\n", "").length();
+            fai.append(name).append('\t').append(length).append('\t').append(start).append('\t')
+                    .append(lineBases).append('\t').append(lineLen).append('\n');
+            pos = end;
+        }
+        return fai.toString();
+    }
+
+    private static String expected(){
+        String nl = System.lineSeparator();
+        String chr4 = "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTTTTTT";
+        return ">chr1" + nl + "ACGTACGTACGTACGTACGTAAC" + nl
+                + ">chr2 some text" + nl + "ccccggggttaaNNacgtACGT" + nl
+                + ">empty" + nl
+                + ">chr4" + nl + chr4.substring(0, 60) + nl + chr4.substring(60) + nl;
+    }
+
+    @Test
+    public void testSerialAndParallel() throws IOException {
+        Path serial = dir.resolve("serial.fa");
+        Path parallel = dir.resolve("parallel.fa");
+        new Standardize(dir.resolve("in.fa").toString(), serial.toString(), "_pilon", 60, 1).run();
+        new Standardize(dir.resolve("in.fa").toString(), parallel.toString(), "_pilon", 60, 3).run();
+
+        assertEquals(expected(), new String(Files.readAllBytes(serial), StandardCharsets.US_ASCII));
+        assertArrayEquals(Files.readAllBytes(serial), Files.readAllBytes(parallel));
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException {
+        // The index claims more chr4 bases than the file holds, so that worker fails
+        String fai = index(input).replace("chr4\t65\t", "chr4\t200\t");
+        Files.write(dir.resolve("in.fa.fai"), fai.getBytes(StandardCharsets.US_ASCII));
+        Path parallel = dir.resolve("parallel.fa");
+        new Standardize(dir.resolve("in.fa").toString(), parallel.toString(), "_pilon", 60, 3).run();
+
+        assertFalse(Files.exists(parallel));
+    }
+}
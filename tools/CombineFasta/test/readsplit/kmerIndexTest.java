@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package readsplit;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import readsplit.kmerIndex.KOrder;
+import readsplit.kmerIndex.KPair;
+import utils.KmerIntersection;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class kmerIndexTest {
+
+    public kmerIndexTest() {
+    }
+
+    @Test
+    public void testBuildIndex() throws IOException {
+        Random rand = new Random(3);
+        int k = 21;
+        String[][] pairs = new String[5000][2];
+        Path file = Files.createTempFile("kmerpairs", ".txt");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(file))){
+            for(String[] p : pairs){
+                for(int x = 0; x < 2; x++){
+                    StringBuilder sb = new StringBuilder(k);
+                    for(int i = 0; i < k; i++)
+                        sb.append("ACGT".charAt(rand.nextInt(4)));
+                    p[x] = sb.toString();
+                }
+                out.print(p[0] + "\t" + p[1] + "\n");
+            }
+        }
+
+        kmerIndex index = new kmerIndex(1000, file.toString(), k);
+        index.buildIndex();
+        assertEquals(1000, index.getSampled());
+
+        int found = 0;
+        Set<Integer> seen = new HashSet<>();
+        for(String[] p : pairs){
+            long a = KmerIntersection.encode(p[0].getBytes(), 0, k);
+            long b = KmerIntersection.encode(p[1].getBytes(), 0, k);
+            int i = index.getKIndex(a);
+            if(i == -1){
+                assertNull(index.getKOrder(a));
+                continue;
+            }
+            found++;
+            assertTrue(seen.add(i));
+            // Either strand finds the kmer
+            assertEquals(i, index.getKIndex(KmerIntersection.reverseComplement(a, k)));
+            assertEquals(i, index.getKIndex(b));
+            assertEquals(KOrder.A, index.getKOrder(a));
+            assertEquals(KOrder.B, index.getKOrder(b));
+            KPair pair = index.getKPair(i);
+            assertEquals(KmerIntersection.canonical(a, k), pair.A);
+            assertEquals(KmerIntersection.canonical(b, k), pair.B);
+        }
+        assertEquals(1000, found);
+
+        // The same seed samples the same pairs
+        kmerIndex again = new kmerIndex(1000, file.toString(), k);
+        again.buildIndex();
+        for(int i = 1; i <= 1000; i++)
+            assertEquals(index.getKPair(i).A, again.getKPair(i).A);
+        assertNull(index.getKPair(1001));
+        Files.delete(file);
+    }
+
+    @Test
+    public void testBadLines() throws IOException {
+        int k = 5;
+        Path file = Files.createTempFile("kmerpairs", ".txt");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(file))){
+            out.print("AAAAA\tCCCCC\n");
+            // Lines whose second kmer does not encode, which the reservoir may pick over the first
+            for(int i = 0; i < 200; i++)
+                out.print("GGGTA\tCCNCC\n");
+            out.print("GGGTA\n");
+        }
+
+        kmerIndex index = new kmerIndex(1, file.toString(), k);
+        index.buildIndex();
+        assertEquals(1, index.getSampled());
+        KPair pair = index.getKPair(1);
+        assertEquals(KmerIntersection.encode("AAAAA".getBytes(), 0, k), pair.A);
+        assertEquals(KmerIntersection.encode("CCCCC".getBytes(), 0, k), pair.B);
+        assertEquals(-1, index.getKIndex(KmerIntersection.encode("GGGTA".getBytes(), 0, k)));
+        Files.delete(file);
+    }
+}
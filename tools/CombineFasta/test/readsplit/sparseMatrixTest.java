@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package readsplit;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import readsplit.sparseMatrix.KCounter;
+import utils.KmerIntersection;
+import utils.KmerIntersection.ByteString;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class sparseMatrixTest {
+
+    public sparseMatrixTest() {
+    }
+
+    @Test
+    public void testConcurrentUpdate() throws IOException, InterruptedException {
+        Random rand = new Random(4);
+        int k = 15;
+        int pairs = 2000;
+        long[][] kmers = new long[pairs][2];
+        Path file = Files.createTempFile("kmerpairs", ".txt");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(file))){
+            for(long[] p : kmers){
+                String[] s = new String[2];
+                for(int x = 0; x < 2; x++){
+                    StringBuilder sb = new StringBuilder(k);
+                    for(int i = 0; i < k; i++)
+                        sb.append("ACGT".charAt(rand.nextInt(4)));
+                    s[x] = sb.toString();
+                    p[x] = KmerIntersection.encode(s[x].getBytes(), 0, k);
+                }
+                out.print(s[0] + "\t" + s[1] + "\n");
+            }
+        }
+        kmerIndex index = new kmerIndex(pairs, file.toString(), k);
+        index.buildIndex();
+        Files.delete(file);
+
+        // Reads of a few indexed kmers and one that is not indexed
+        long[][] reads = new long[20000][];
+        for(int r = 0; r < reads.length; r++){
+            reads[r] = new long[4];
+            for(int x = 0; x < 3; x++)
+                reads[r][x] = kmers[rand.nextInt(pairs / 20)][rand.nextInt(2)];
+            reads[r][3] = rand.nextLong() & ((1L << (2 * k)) - 1);
+        }
+
+        Map<Long, int[]> expected = new HashMap<>();
+        for(long[] read : reads){
+            for(int x = 0; x < read.length; x++){
+                for(int y = 0; y < read.length; y++){
+                    int i = index.getKIndex(read[x]);
+                    int j = index.getKIndex(read[y]);
+                    if(x == y || i == -1 || j == -1)
+                        continue;
+                    int cell = (index.getKOrder(read[x]).ordinal() << 1) | index.getKOrder(read[y]).ordinal();
+                    expected.computeIfAbsent(((long) i << 32) | j, (key) -> new int[4])[cell]++;
+                }
+            }
+        }
+
+        sparseMatrix matrix = new sparseMatrix(index.getSampled(), index);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for(long[] read : reads)
+            executor.execute(() -> matrix.updateCounter(read, index));
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        assertEquals(expected.size(), matrix.size());
+        for(Map.Entry<Long, int[]> e : expected.entrySet()){
+            KCounter c = matrix.getCounter((int) (e.getKey() >>> 32), (int) (long) e.getKey());
+            assertArrayEquals(e.getValue(), c.counts);
+        }
+        assertNull(matrix.getCounter(pairs + 1, 1));
+    }
+
+    private static ByteString bytes(String kmer){
+        ByteString b = new ByteString(kmer.length());
+        b.calculateHash(kmer.getBytes(), 0);
+        return b;
+    }
+
+    @Test
+    public void testAmbiguousKmers() throws IOException {
+        int k = 5;
+        Path file = Files.createTempFile("kmerpairs", ".txt");
+        try(PrintStream out = new PrintStream(Files.newOutputStream(file))){
+            out.print("AAAAC\tCCCCA\n");
+            out.print("GGGTA\tTTGCA\n");
+        }
+        kmerIndex index = new kmerIndex(2, file.toString(), k);
+        index.buildIndex();
+        Files.delete(file);
+
+        assertEquals(-1, index.getKIndex(bytes("ACNGT")));
+        assertNull(index.getKOrder(bytes("ACNGT")));
+
+        // The kmer with an N is skipped, and the rest are counted
+        sparseMatrix matrix = new sparseMatrix(index.getSampled(), index);
+        matrix.updateCounter(Arrays.asList(bytes("AAAAC"), bytes("ACNGT"), bytes("TTGCA"), bytes("NNNNN")), index);
+        int i = index.getKIndex(bytes("AAAAC"));
+        int j = index.getKIndex(bytes("TTGCA"));
+        assertEquals(2, matrix.size());
+        assertArrayEquals(new int[]{0, 1, 0, 0}, matrix.getCounter(i, j).counts);
+        assertArrayEquals(new int[]{0, 0, 1, 0}, matrix.getCounter(j, i).counts);
+    }
+}
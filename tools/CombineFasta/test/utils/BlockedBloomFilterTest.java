@@ -0,0 +1,62 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class BlockedBloomFilterTest {
+
+    public BlockedBloomFilterTest() {
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BlockedBloomFilter<String> bloom = new BlockedBloomFilter<>(0.01, 100000);
+        assertEquals(0, bloom.size() % 512);
+        for(int i = 0; i < 100000; i++)
+            bloom.add("read" + i);
+        for(int i = 0; i < 100000; i++)
+            assertTrue(bloom.contains("read" + i));
+        assertEquals(100000, bloom.count());
+        assertTrue(bloom.getFalsePositiveProbability() <= 0.0101);
+
+        int falsePositives = 0;
+        for(int i = 0; i < 100000; i++){
+            if(bloom.contains("other" + i))
+                falsePositives++;
+        }
+        assertTrue("False positive rate: " + falsePositives / 100000.0, falsePositives < 1500);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        BlockedBloomFilter<String> bloom = new BlockedBloomFilter<>(0.001, 80000);
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            final int start = t * 20000;
+            threads.add(new Thread(() -> {
+                for(int i = start; i < start + 20000; i++)
+                    bloom.add("read" + i);
+            }));
+        }
+        for(Thread t : threads)
+            t.start();
+        for(Thread t : threads)
+            t.join();
+
+        // No bit set by one thread may be lost to another
+        assertEquals(80000, bloom.count());
+        for(int i = 0; i < 80000; i++)
+            assertTrue(bloom.contains("read" + i));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class BloomFilterTest {
+
+    public BloomFilterTest() {
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter<String> bloom = new BloomFilter<>(0.01, 100000);
+        for(int i = 0; i < 100000; i++)
+            bloom.add("read" + i);
+        for(int i = 0; i < 100000; i++)
+            assertTrue(bloom.contains("read" + i));
+        assertEquals(100000, bloom.count());
+
+        int falsePositives = 0;
+        for(int i = 0; i < 100000; i++){
+            if(bloom.contains("other" + i))
+                falsePositives++;
+        }
+        assertTrue("False positive rate: " + falsePositives / 100000.0, falsePositives < 1500);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        BloomFilter<String> bloom = new BloomFilter<>(0.001, 80000);
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            final int start = t * 20000;
+            threads.add(new Thread(() -> {
+                for(int i = start; i < start + 20000; i++)
+                    bloom.add("read" + i);
+            }));
+        }
+        for(Thread t : threads)
+            t.start();
+        for(Thread t : threads)
+            t.join();
+
+        // No bit set by one thread may be lost to another
+        assertEquals(80000, bloom.count());
+        for(int i = 0; i < 80000; i++)
+            assertTrue(bloom.contains("read" + i));
+    }
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        BloomFilter<String> bloom = new BloomFilter<>(0.01, 5000);
+        for(int i = 0; i < 5000; i++)
+            bloom.add("read" + i);
+        File file = File.createTempFile("bloom", ".bin");
+        file.deleteOnExit();
+        bloom.write(file.toPath());
+        assertEquals(64 + ((bloom.size() + 63) / 64) * 8, file.length());
+
+        BloomFilter<String> mapped = BloomFilter.open(file.toPath());
+        assertEquals(bloom, mapped);
+        assertEquals(5000, mapped.count());
+        for(int i = 0; i < 5000; i++)
+            assertTrue(mapped.contains("read" + i));
+        try{
+            mapped.add("more");
+            fail("A mapped filter should be read only");
+        }catch(UnsupportedOperationException ex){
+        }
+
+        // A loaded copy can keep growing
+        BloomFilter<String> loaded = BloomFilter.load(file.toPath());
+        loaded.add("more");
+        assertTrue(loaded.contains("more"));
+        assertEquals(5001, loaded.count());
+    }
+}
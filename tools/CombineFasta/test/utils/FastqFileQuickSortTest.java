@@ -0,0 +1,179 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class FastqFileQuickSortTest {
+    private static final int READS = 3000;
+    private static final String BASES = "ACGT";
+    private Path dir;
+    private Path fastq;
+    // Tab joined records in the order the sort should give
+    private List<String> reference;
+    private List<String> names;
+
+    public FastqFileQuickSortTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("quicksort");
+        fastq = dir.resolve("reads.fq");
+        reference = new ArrayList<>(READS);
+        names = new ArrayList<>(READS);
+        SplittableRandom rand = new SplittableRandom(7);
+        try(BufferedWriter out = Files.newBufferedWriter(fastq, StandardCharsets.US_ASCII)){
+            for(int i = 0; i < READS; i++){
+                // Long shared prefixes, and some repeated names to check that ties keep input order
+                String name = "@SIM:1:FCX:" + rand.nextInt(4) + ":" + rand.nextInt(30) + ":" + rand.nextInt(1000);
+                String head = name + " 1:N:0:" + i;
+                StringBuilder seq = new StringBuilder();
+                for(int b = 0; b < 20 + rand.nextInt(40); b++)
+                    seq.append(BASES.charAt(rand.nextInt(4)));
+                String qual = seq.toString().replaceAll(".", "E");
+                out.write(head + "\n" + seq + "\n+\n" + qual + "\n");
+                reference.add(head + "\t" + seq + "\t+\t" + qual);
+                names.add(name);
+            }
+        }
+        // The merge is stable, so equal headers stay in input order
+        reference.sort(Comparator.comparing((String r) -> r.substring(0, r.indexOf('\t'))));
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.toFile().listFiles())
+            f.delete();
+        dir.toFile().delete();
+    }
+
+    private FastqFileQuickSort sort(Consumer<FastqFileQuickSort> settings) throws IOException{
+        FastqFileQuickSort sorter = new FastqFileQuickSort("\t", new int[]{0}, fastq.toString());
+        sorter.getTemp().toFile().deleteOnExit();
+        sorter.setTempDirectory(dir.toString());
+        settings.accept(sorter);
+        sorter.splitChunks(fastq, "test");
+        sorter.mergeChunks();
+        return sorter;
+    }
+
+    private void checkSorted(FastqFileQuickSort sorter) throws IOException{
+        assertEquals(reference, Files.readAllLines(sorter.getTemp(), StandardCharsets.US_ASCII));
+        ReadNameSet set = sorter.getOutput().names;
+        assertEquals(READS, set.size());
+        for(String n : names)
+            assertTrue(set.contains(n));
+        // Every temp run has been deleted, leaving only the input
+        assertEquals(1, dir.toFile().listFiles().length);
+    }
+
+    /**
+     * Test of the default settings, which sort the file as one chunk.
+     */
+    @Test
+    public void testOneChunk() throws IOException {
+        checkSorted(sort((s) -> {}));
+    }
+
+    /**
+     * Test of a merge of more runs than the fan in limit, which takes several passes.
+     */
+    @Test
+    public void testMultiPassMerge() throws IOException {
+        checkSorted(sort((s) -> {
+            s.setMaximumChunkSize(1 << 14);
+            s.setMaximumFanIn(3);
+        }));
+        checkSorted(sort((s) -> {
+            s.setMaximumChunkSize(1 << 14);
+            s.setMaximumFanIn(2);
+            s.setSortThreads(3);
+        }));
+    }
+
+    /**
+     * Test that chunks which fail to be written stop the merge.
+     */
+    @Test
+    public void testFailedChunk() throws IOException {
+        FastqFileQuickSort sorter = new FastqFileQuickSort("\t", new int[]{0}, fastq.toString());
+        sorter.getTemp().toFile().deleteOnExit();
+        File runs = dir.resolve("runs").toFile();
+        assertTrue(runs.mkdir());
+        sorter.setTempDirectory(runs.toString());
+        sorter.setMaximumChunkSize(1 << 14);
+        // Runs can no longer be created once their directory is gone
+        assertTrue(runs.delete());
+        sorter.splitChunks(fastq, "test");
+        try{
+            sorter.mergeChunks();
+            fail("Merged chunks that were never written");
+        }catch(IOException ex){
+            assertNull(sorter.getOutput().names);
+        }
+    }
+
+    /**
+     * Test of compressed and plain temp runs, through intermediate and final merges.
+     */
+    @Test
+    public void testCompressedRuns() throws IOException {
+        for(boolean compress : new boolean[]{true, false}){
+            checkSorted(sort((s) -> {
+                s.setCompressTempFiles(compress);
+                s.setMaximumChunkSize(1 << 14);
+                s.setMaximumFanIn(4);
+            }));
+        }
+    }
+
+    /**
+     * Test of chunk budgets that hold only a few records.
+     */
+    @Test
+    public void testChunkBudget() throws IOException {
+        // Smaller than one slab, so every chunk holds a single record
+        checkSorted(sort((s) -> s.setMaximumChunkSize(1024)));
+        checkSorted(sort((s) -> {
+            s.setMaximumChunkSize(1 << 12);
+            s.setChunksInFlight(1);
+            s.setSortThreads(2);
+        }));
+    }
+
+    /**
+     * Test of the prefix key radix sort against the comparison sort, on names that share long prefixes.
+     */
+    @Test
+    public void testRadixSort() throws IOException {
+        for(boolean radix : new boolean[]{true, false}){
+            checkSorted(sort((s) -> s.setRadixSort(radix)));
+            checkSorted(sort((s) -> {
+                s.setRadixSort(radix);
+                s.setMaximumChunkSize(1 << 14);
+            }));
+        }
+    }
+}
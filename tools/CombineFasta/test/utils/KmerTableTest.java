@@ -0,0 +1,76 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class KmerTableTest {
+
+    public KmerTableTest() {
+    }
+
+    private static String reverseComplement(String kmer){
+        StringBuilder sb = new StringBuilder(kmer.length());
+        for(int i = kmer.length() - 1; i >= 0; i--)
+            sb.append("TGCA".charAt("ACGT".indexOf(kmer.charAt(i))));
+        return sb.toString();
+    }
+
+    @Test
+    public void testCanonicalCounts() {
+        Random rand = new Random(1);
+        byte[] alphabet = {'A', 'C', 'G', 'T', 'a', 'c', 'g', 't'};
+        byte[] seq = new byte[20000];
+        for(int i = 0; i < seq.length; i++)
+            seq[i] = (rand.nextInt(200) == 0)? (byte) 'N' : alphabet[rand.nextInt(alphabet.length)];
+
+        for(int k : new int[]{1, 5, 11, 31}){
+            Map<String, Integer> expected = new HashMap<>();
+            String upper = new String(seq).toUpperCase();
+            for(int i = 0; i + k <= upper.length(); i++){
+                String kmer = upper.substring(i, i + k);
+                if(kmer.indexOf('N') >= 0)
+                    continue;
+                String rc = reverseComplement(kmer);
+                expected.merge((kmer.compareTo(rc) <= 0)? kmer : rc, 1, Integer::sum);
+            }
+
+            KmerTable table = KmerIntersection.countKmers(seq, k);
+            assertEquals(expected.size(), table.size());
+            for(Map.Entry<String, Integer> e : expected.entrySet()){
+                long kmer = KmerIntersection.encode(e.getKey().getBytes(), 0, k);
+                assertEquals(kmer, KmerIntersection.canonical(kmer, k));
+                assertEquals(e.getKey(), KmerIntersection.decode(kmer, k));
+                assertEquals(e.getValue().intValue(), table.get(kmer));
+            }
+        }
+    }
+
+    @Test
+    public void testGrow() {
+        KmerTable table = new KmerTable(10);
+        int capacity = table.capacity();
+        for(long i = 0; i < 100000; i++)
+            table.add(i * 7919, (int) (i % 5) + 1);
+        table.increment(0);
+        assertTrue(table.capacity() > capacity);
+        assertEquals(100000, table.size());
+        for(long i = 0; i < 100000; i++)
+            assertEquals((i == 0)? 2 : (int) (i % 5) + 1, table.get(i * 7919));
+        assertEquals(0, table.get(3));
+        long[] total = new long[1];
+        table.forEach((kmer, count) -> total[0] += count);
+        assertEquals(300001, total[0]);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class ReadNameSetTest {
+    
+    public ReadNameSetTest() {
+    }
+
+    private static void checkSet(ReadNameSet set, int count) throws IOException{
+        for(int i = 0; i < count; i++)
+            set.add("read" + i);
+        set.seal();
+        assertEquals(count, set.size());
+        for(int i = 0; i < count; i++)
+            assertTrue(set.contains("read" + i));
+        for(int i = count; i < count + 1000; i++)
+            assertFalse(set.contains("read" + i));
+    }
+
+    /**
+     * Test of a set that fits in one page
+     */
+    @Test
+    public void testOnePage() throws IOException {
+        checkSet(new ReadNameSet(false, 12), 3000);
+        checkSet(new ReadNameSet(true, 12), 3000);
+    }
+
+    /**
+     * Test of sets whose full pages are written out as they fill
+     */
+    @Test
+    public void testSpilledPages() throws IOException {
+        // Several full pages and a partial one
+        checkSet(new ReadNameSet(false, 10), 5000);
+        checkSet(new ReadNameSet(true, 10), 5000);
+        // Only full pages
+        checkSet(new ReadNameSet(false, 10), 4096);
+        checkSet(new ReadNameSet(true, 10), 4096);
+    }
+
+    /**
+     * Test that the merged pages come out in order
+     */
+    @Test
+    public void testSortedFingerprints() throws IOException {
+        ReadNameSet set = new ReadNameSet(false, 8);
+        SplittableRandom rand = new SplittableRandom(1);
+        long[] values = new long[2000];
+        for(int i = 0; i < values.length; i++){
+            values[i] = rand.nextLong();
+            set.add(values[i]);
+        }
+        set.seal();
+        for(long v : values)
+            assertTrue(set.contains(v));
+    }
+
+    /**
+     * Test of an empty set
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        checkSet(new ReadNameSet(false, 10), 0);
+        checkSet(new ReadNameSet(true, 10), 0);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author dbickhart
+ */
+public class ReverseComplementTest {
+
+    public ReverseComplementTest() {
+    }
+
+    @Test
+    public void testReverseComplement() {
+        assertEquals("NnTGCAacgt-", ReverseComplement.reverseComplement("-acgtTGCAnN"));
+        assertEquals("YRKMSWBVHDA", ReverseComplement.reverseComplement("THDBVWSKMYR"));
+        assertEquals("N", ReverseComplement.reverseComplement("X"));
+        assertEquals("", ReverseComplement.reverseComplement(""));
+
+        // Odd and even ranges inside a larger array
+        byte[] seq = "xxACGTAxx".getBytes(StandardCharsets.US_ASCII);
+        ReverseComplement.reverseComplement(seq, 2, 5);
+        assertEquals("xxTACGTxx", new String(seq, StandardCharsets.US_ASCII));
+        ReverseComplement.reverseComplement(seq, 2, 4);
+        assertEquals("xxCGTATxx", new String(seq, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        // Longer than two copy blocks, with an odd length so one base sits in the middle
+        Random rand = new Random(17);
+        byte[] alphabet = "ACGTNacgtnRYKM".getBytes(StandardCharsets.US_ASCII);
+        byte[] seq = new byte[20001];
+        for(int i = 0; i < seq.length; i++)
+            seq[i] = alphabet[rand.nextInt(alphabet.length)];
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(seq.length + 6);
+        buf.position(3);
+        buf.put(seq);
+        buf.limit(seq.length + 3).position(3);
+        ReverseComplement.reverseComplement(buf);
+        assertEquals(3, buf.position());
+
+        byte[] expected = seq.clone();
+        ReverseComplement.reverseComplement(expected);
+        byte[] observed = new byte[seq.length];
+        buf.get(observed);
+        assertArrayEquals(expected, observed);
+    }
+}
@@ -11,6 +11,8 @@ import java.lang.ProcessBuilder;
 import java.io.FileInputStream;
 import java.io.InputStream;
 
+import utils.ReverseComplement;
+
 public class Utils {
    public static final int MBYTES = 1048576;
    public static final int FASTA_LINE_LENGTH = 60;
@@ -96,138 +98,6 @@ public class Utils {
       }
    }
    
-   public enum Translate
-   {
-       A("T"),
-       C("G"),
-       G("C"),
-       T("A"),
-       N("N"),
-       R("?"),
-       Y("?"),
-       K("?"),
-       M("?"),
-       S("?"),
-       W("?"),
-       D("?"),
-       V("?"),
-       H("?"),
-       B("?");
-
-       private String other;
-
-       public String getCompliment()
-       {
-	  if (this == Translate.R) {
-	     double rand = Math.random();
-             if (rand < 0.5) {
-                other = "T";
-             }
-             else {
-                other = "C";
-             }
-	  }
-          else if (this == Translate.Y) {
-             double rand = Math.random();
-             if (rand < 0.5) {
-                other = "G";
-             }
-             else {
-                other = "A";
-             }
-          }
-          else if (this == Translate.K) {
-             double rand = Math.random();
-             if (rand < 0.5) {
-                other = "A";
-             }
-             else {
-                other = "C";
-             }
-          }
-          else if (this == Translate.M) {
-             double rand = Math.random();
-             if (rand < 0.5) {
-                other = "G";
-             }
-             else {
-                other = "T";
-             }
-          }
-          else if (this == Translate.S) {
-             double rand = Math.random();
-             if (rand < 0.5) {
-                other = "C";
-             }
-             else {
-                other = "G";
-             }
-          }
-          else if (this == Translate.W) {
-             double rand = Math.random();
-             if (rand < 0.5) {
-                other = "T";
-             }
-             else {
-                other = "A";
-             }
-          }
-          else if (this == Translate.D) {
-             double rand = Math.random()*3;
-             if (rand < 1) {
-                other = "T";
-             }
-             else if (rand < 2) {
-		other = "C";
-             }
-             else {
-                other = "A";
-             }
-          }
-          else if (this == Translate.V) {
-             double rand = Math.random()*3;
-             if (rand < 1) {
-                other = "T";
-             }
-             else if (rand < 2) {
-                other = "G";
-             }
-             else {
-                other = "C";
-             }
-          }
-          else if (this == Translate.H) {
-             double rand = Math.random()*3;
-             if (rand < 1) {
-                other = "T";
-             }
-             else if (rand < 2) {
-                other = "G";
-             }
-             else {
-                other = "A";
-             }
-          }
-          else if (this == Translate.B) {
-             double rand = Math.random()*3;
-             if (rand < 1) {
-                other = "G";
-             }
-             else if (rand < 2) {
-                other = "C";
-             }
-             else {
-                other = "A";
-             }
-          }
-          return other;
-       }
-       Translate( String other )
-       {
-          this.other = other;
-       }
-   }
-   
    public enum ToProtein
    {
       GCT("A"),
@@ -420,19 +290,9 @@ public class Utils {
       return converted.toString();
    }
    
+   // '-' gaps are kept and the result is upper case; ambiguity codes get their IUPAC complement
    public static String rc(String supplied) {
-      StringBuilder st = new StringBuilder();
-      for (int i = supplied.length() - 1; i >= 0; i--) {
-         char theChar = supplied.charAt(i);         
-         
-         if (theChar != '-') {
-            Translate t = Translate.valueOf(Character.toString(theChar).toUpperCase());
-            st.append(t.getCompliment());
-         } else {
-            st.append("-");
-         }
-      }
-      return st.toString();
+      return ReverseComplement.reverseComplement(supplied).toUpperCase();
    }
 
    public static void outputFasta(PrintStream out, String fastaSeq, String ID) {
@@ -502,7 +362,12 @@ public class Utils {
       genome = genome.replaceAll("-", "");
       
       for (int i = frame; i < (genome.length() - 3); i += 3) {
-         String codon = genome.substring(i, i+3);
+         String codon = genome.substring(i, i+3).toUpperCase();
+         // Codons with N or an ambiguity code have no single amino acid
+         if (!codon.matches("[ACGT]{3}")) {
+            result.append("X");
+            continue;
+         }
          String protein = ToProtein.valueOf(codon).getProtein();
          result.append(protein);
       }
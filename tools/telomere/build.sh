@@ -1,7 +1,8 @@
 #!/bin/bash
 
-javac *.java
-jar cf telomere.jar *.class
-rm *.class
+# Utils.rc uses the reverse complement kernel from CombineFasta
+javac -d . *.java ../CombineFasta/src/utils/ReverseComplement.java
+jar cf telomere.jar *.class utils/*.class
+rm -r *.class utils
 
 g++ find_telomere.c -o find_telomere